@@ -0,0 +1,10 @@
+CREATE TABLE VALIDATION_RUN_OBJECTS (
+  run_id          BIGINT        NOT NULL,
+  url             VARCHAR(2000),
+  hash            VARCHAR(64)   NOT NULL
+);
+
+CREATE INDEX idx_validation_run_hash ON VALIDATION_RUN_OBJECTS (run_id, hash);
+CREATE INDEX idx_validation_run_url ON VALIDATION_RUN_OBJECTS (run_id, url);
+
+CREATE SEQUENCE validation_run_seq AS BIGINT;
@@ -0,0 +1 @@
+CREATE INDEX idx_object_blobs_age ON OBJECT_BLOBS (validation_time, download_time);
@@ -0,0 +1,6 @@
+CREATE TABLE RRDP_SESSIONS (
+  url           VARCHAR(2000) NOT NULL,
+  session_id    VARCHAR(128)  NOT NULL,
+  serial_number VARCHAR(128)  NOT NULL,
+  PRIMARY KEY (url)
+);
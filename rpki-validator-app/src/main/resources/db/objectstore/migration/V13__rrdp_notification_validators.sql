@@ -0,0 +1,6 @@
+CREATE TABLE RRDP_NOTIFICATIONS (
+  url           VARCHAR(2000) NOT NULL,
+  etag          VARCHAR(1000),
+  last_modified VARCHAR(100),
+  PRIMARY KEY (url)
+);
@@ -0,0 +1,7 @@
+CREATE TABLE HTTP_OBJECTS (
+  url           VARCHAR(2000) NOT NULL,
+  etag          VARCHAR(1000),
+  last_modified VARCHAR(100),
+  hash          VARCHAR(64)   NOT NULL,
+  PRIMARY KEY (url)
+);
@@ -0,0 +1,35 @@
+CREATE TABLE OBJECT_BLOBS (
+  hash            VARCHAR(64)   NOT NULL,
+  aki             VARCHAR(40)   NOT NULL,
+  object_type     CHAR (3)      NOT NULL,
+  encoded         BLOB          NOT NULL,
+  ref_count       INTEGER       NOT NULL DEFAULT 0,
+  download_time   TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  validation_time TIMESTAMP,
+  PRIMARY KEY (hash),
+  CHECK (object_type IN ('crl', 'mft', 'roa', 'cer', 'gbr'))
+);
+
+CREATE INDEX idx_object_blobs_aki_type ON OBJECT_BLOBS (aki, object_type);
+
+CREATE TABLE OBJECT_URLS (
+  url             VARCHAR(2000) NOT NULL,
+  hash            VARCHAR(64)   NOT NULL,
+  download_time   TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (url, hash)
+);
+
+CREATE INDEX idx_object_urls_hash ON OBJECT_URLS (hash);
+
+-- keep the already downloaded objects, one blob per distinct hash
+INSERT INTO OBJECT_BLOBS (hash, aki, object_type, encoded, ref_count, download_time, validation_time)
+  SELECT r.hash, r.aki, r.object_type, r.encoded,
+    (SELECT COUNT(1) FROM REPO_OBJECTS c WHERE c.hash = r.hash),
+    r.download_time, r.validation_time
+  FROM REPO_OBJECTS r
+  WHERE r.url = (SELECT MIN(m.url) FROM REPO_OBJECTS m WHERE m.hash = r.hash);
+
+INSERT INTO OBJECT_URLS (url, hash, download_time)
+  SELECT url, hash, download_time FROM REPO_OBJECTS;
+
+DROP TABLE REPO_OBJECTS;
@@ -0,0 +1,56 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.api
+
+import java.net.URI
+
+import net.liftweb.json._
+import net.ripe.rpki.validator.store.RepoFailure
+import org.scalatra.{Ok, ScalatraBase}
+
+trait RepositoryFailuresController extends ScalatraBase {
+  import net.liftweb.json.JsonDSL._
+
+  protected def getRepositoryFailures: Map[URI, RepoFailure]
+
+  get("/v1/repositories/failing") {
+    contentType = "text/json;charset=UTF-8"
+    response.addHeader("Cache-Control", "no-cache,no-store")
+
+    val failures = getRepositoryFailures.toSeq.sortBy(_._1.toString).map { case (uri, f) =>
+      ("uri" -> uri.toString) ~
+        ("failures" -> f.failures) ~
+        ("last_failure" -> f.lastFailure.toString) ~
+        ("retry_at" -> f.retryAt.toString) ~
+        ("message" -> f.message)
+    }
+    Ok(body = pretty(render("repositories" -> failures)))
+  }
+}
@@ -32,7 +32,8 @@ package net.ripe.rpki.validator.api
 import org.scalatra.ScalatraServlet
 import net.liftweb.json._
 
-abstract class RestApi extends ScalatraServlet with BgpPrefixOriginValidationController with CacheStoreController {
+abstract class RestApi extends ScalatraServlet with BgpPrefixOriginValidationController with CacheStoreController
+  with RepositoryFailuresController {
   import net.liftweb.json.JsonDSL._
 
   before() {
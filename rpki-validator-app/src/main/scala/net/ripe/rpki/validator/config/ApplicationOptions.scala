@@ -62,6 +62,10 @@ object ApplicationOptions {
     }
   }
 
+  def validationIntervalMin = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("validation.min-interval", 1.minute)
+
   def rtrPort: Int = safeConf(config.getInt)("rtr.port")
   def rtrCloseOnError: Boolean = safeConf(config.getBoolean)("rtr.close-on-error")
   def rtrSendNotify: Boolean = safeConf(config.getBoolean)("rtr.send-notify")
@@ -73,20 +77,69 @@ object ApplicationOptions {
   def trustedSslCertsLocation = safeConf(s => new File(config.getString(s)))("locations.trusted.ssl.dir")
   def workDirLocation = safeConf(s => new File(config.getString(s)))("locations.workdir")
   def rsyncDirLocation = safeConf(config.getString)("locations.rsyncdir")
+  def mirrorDirLocation = Option(confOrElse(config.getString)("locations.mirrordir", "")).filter(_.nonEmpty).map(new File(_))
+  def fetchRecordDirLocation = Option(confOrElse(config.getString)("fetch.record.dir", "")).filter(_.nonEmpty).map(new File(_))
+  def fetchReplayDirLocation = Option(confOrElse(config.getString)("fetch.replay.dir", "")).filter(_.nonEmpty).map(new File(_))
+  def fetchReplayLatencyFactor = confOrElse(config.getDouble)("fetch.replay.latency", 0.0)
 
   def applicationLogFileName = safeConf(config.getString)("logging.application.file")
   def rtrLogFileName = safeConf(config.getString)("logging.rtr.file")
   def accessLogFileName = safeConf(config.getString)("logging.access.file")
 
   def enableLooseValidation = safeConf(config.getBoolean)("validation.loose")
+  def enableWarmStart = confOrElse(config.getBoolean)("validation.warm-start", true)
 
   def removeOldObjectTimeoutInHours = confOrElse {
     c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
   }("validation.remove_old_objects.interval", FiniteDuration(7, TimeUnit.DAYS))
 
+  def cacheCollectorInterval = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("cache.gc.interval", 10.minutes)
+  def cacheCollectorBatchSize = confOrElse(config.getInt)("cache.gc.batch.size", 1000)
+  def cacheInMemory = confOrElse(config.getString)("cache.store", "durable") == "memory"
+  def cacheCompressInterval = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("cache.compress.interval", 1.day)
+
+  def httpConnectTimeout = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("http.connect.timeout", 11.seconds)
+  def httpSocketTimeout = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("http.socket.timeout", 29.seconds)
+  def httpMaxConnections = confOrElse(config.getInt)("http.connections.max", 64)
+  def httpMaxConnectionsPerHost = confOrElse(config.getInt)("http.connections.per.host", 8)
+  def rrdpDeltaDownloads = confOrElse(config.getInt)("fetch.rrdp.delta.downloads", 8)
+  def rsyncMaxProcesses = confOrElse(config.getInt)("fetch.rsync.processes.max", 16)
+  def rsyncMaxProcessesPerHost = confOrElse(config.getInt)("fetch.rsync.processes.per.host", 4)
+  def rsyncFetchWholeModules = confOrElse(config.getBoolean)("fetch.rsync.whole-modules", true)
+  def rsyncInProcess = confOrElse(config.getBoolean)("fetch.rsync.in-process", false)
+  def rsyncDeadline = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("fetch.rsync.deadline", 20.minutes)
+
   def preferRrdp = confOrElse(config.getBoolean)("prefer.rrdp", false)
   def rddpFetcherInterval = org.joda.time.Duration.standardMinutes(confOrElse(config.getInt)("fetch.rddp.interval", 1))
   def rsyncFetcherInterval = org.joda.time.Duration.standardMinutes(confOrElse(config.getInt)("fetch.rsync.interval", 10))
+  def adaptiveFetchIntervals = confOrElse(config.getBoolean)("fetch.interval.adaptive", true)
+  def rsyncFetcherMinInterval = confOrElse(jodaDuration)("fetch.rsync.min-interval", org.joda.time.Duration.standardMinutes(2))
+  def rsyncFetcherMaxInterval = confOrElse(jodaDuration)("fetch.rsync.max-interval", org.joda.time.Duration.standardHours(1))
+  def rrdpFetcherMinInterval = confOrElse(jodaDuration)("fetch.rrdp.min-interval", org.joda.time.Duration.standardMinutes(1))
+  def rrdpFetcherMaxInterval = confOrElse(jodaDuration)("fetch.rrdp.max-interval", org.joda.time.Duration.standardMinutes(15))
+
+  def fetchBackoffInitial = confOrElse(jodaDuration)("fetch.backoff.initial", org.joda.time.Duration.standardMinutes(1))
+  def fetchBackoffMaximum = confOrElse(jodaDuration)("fetch.backoff.max", org.joda.time.Duration.standardHours(1))
+
+  def hedgedFetches = confOrElse(config.getBoolean)("fetch.hedge.enabled", true)
+  def hedgeTrustAnchorDelay = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("fetch.hedge.trust-anchor.delay", 5.seconds)
+  def hedgeRepositoryDelay = confOrElse {
+    c => FiniteDuration(config.getDuration(c, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+  }("fetch.hedge.repository.delay", 1.minute)
+
+  private def jodaDuration(name: String) = org.joda.time.Duration.millis(config.getDuration(name, TimeUnit.MILLISECONDS))
 
   private def safeConf[T](f: String => T)(name: String) : T = try {
     f(name)
@@ -33,15 +33,18 @@ import java.io.{BufferedInputStream, File, FileInputStream, InputStream}
 import java.net.URI
 import java.security.KeyStore
 import java.security.cert.{CertificateFactory, X509Certificate}
+import javax.net.ssl.{SSLContext, SSLException, TrustManagerFactory, X509TrustManager}
 
 import grizzled.slf4j.Logging
-import javax.net.ssl.{SSLException, TrustManagerFactory, X509TrustManager}
-import net.ripe.rpki.validator.lib.DateAndTime._
+import net.ripe.rpki.validator.store.SimpleSingletons
+import org.apache.http.HttpResponse
 import org.apache.http.client.config.RequestConfig
 import org.apache.http.client.methods.{CloseableHttpResponse, HttpGet}
-import org.apache.http.conn.ssl.{SSLConnectionSocketFactory, SSLContexts, TrustStrategy}
-import org.apache.http.impl.client.HttpClientBuilder
-import org.joda.time.DateTime
+import org.apache.http.config.RegistryBuilder
+import org.apache.http.conn.socket.{ConnectionSocketFactory, PlainConnectionSocketFactory}
+import org.apache.http.conn.ssl.{SSLConnectionSocketFactory, SSLContexts, TrustStrategy, X509HostnameVerifier}
+import org.apache.http.impl.client.{CloseableHttpClient, HttpClientBuilder}
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
 
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success, Try}
@@ -50,104 +53,23 @@ trait Http { this: Logging =>
 
   def trustedCertsLocation: File
 
-  private val customKeyStore = KeyStore.getInstance("jceks")
-  customKeyStore.load(null)
+  private lazy val clients = Http.clients(trustedCertsLocation.getAbsoluteFile)
 
-  private val systemTrustedCertificates = {
-    val tmf = TrustManagerFactory.getInstance("PKIX")
-    tmf.init(null.asInstanceOf[KeyStore])
-    tmf.getTrustManagers.withFilter(_.isInstanceOf[X509TrustManager]).flatMap(_.asInstanceOf[X509TrustManager].getAcceptedIssuers)
-  }
-
-  systemTrustedCertificates.foreach(putCertificateInKeyStore)
-  loadCertificatesFromDir(trustedCertsLocation).foreach {
-    case Success(cert) => putCertificateInKeyStore(cert)
-    case Failure(e) => logger.error(e)
-  }
-
-  private def loadCertificatesFromDir(dir: File): Array[Try[X509Certificate]] = {
-    lazy val cf = CertificateFactory.getInstance("X.509")
-    def loadCertificateFromFile(f: File): Try[X509Certificate] = {
-      Try {
-        cf.generateCertificate(new BufferedInputStream(new FileInputStream(f))).asInstanceOf[X509Certificate]
-      } recoverWith {
-        case e: Exception =>
-          Failure(new RuntimeException(s"Error loading certificate from file $f: ${e.getMessage}", e))
-      }
-    }
-
-    if (!dir.isDirectory) {
-      Array()
-    } else {
-      try {
-        dir.listFiles().withFilter(f => f.isFile && !f.getName.equals(".keep")).map(f => loadCertificateFromFile(f))
-      } catch {
-        case e: Exception =>
-          Array(Failure(new RuntimeException(s"Error reading trusted certificates from $dir: ${e.getMessage}", e)))
-      }
-    }
-  }
-
-  private def putCertificateInKeyStore(cert: X509Certificate): Unit = {
-    customKeyStore.setCertificateEntry(cert.getSubjectDN.getName, cert)
-  }
-
-  private val httpRequestConfig = RequestConfig.custom()
-    .setConnectTimeout(11 * 1000)
-    .setSocketTimeout(29 * 1000)
-    .build()
-
-  private val customSslContext = SSLContexts.custom()
-    .useTLS()
-    .loadTrustMaterial(customKeyStore)
-    .build()
-
-  private val httpClient = HttpClientBuilder.create()
-    .useSystemProperties()
-    .setDefaultRequestConfig(httpRequestConfig)
-    .setSslcontext(customSslContext)
-    .build()
-
-  private lazy val wrongSslHttp = {
-    val acceptingTrustStrategy = new TrustStrategy() {
-      override def isTrusted(chain: Array[X509Certificate], authType: String) = true
-    }
-
-    val emptyKeyStore = KeyStore.getInstance(KeyStore.getDefaultType)
-    emptyKeyStore.load(null.asInstanceOf[InputStream], "".toCharArray)
-
-    val sslConext = SSLContexts.custom()
-      .useTLS()
-      .loadTrustMaterial(emptyKeyStore, acceptingTrustStrategy)
-      .build()
-
-    val socketFactory = new SSLConnectionSocketFactory(sslConext,
-      SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)
-
-    HttpClientBuilder.create()
-      .setSSLSocketFactory(socketFactory)
-      .build()
-  }
-
-  def http = httpClient
-
-  private var invalidSslHosts = Set[String]()
+  def http: CloseableHttpClient = clients.secure
 
   private def fallBackToInsecureSsl[T](get: HttpGet) = {
     val url = get.getURI
     if (url.getScheme == "https") {
-      if (invalidSslHosts.contains(url.getHost)) {
-        wrongSslHttp.execute(get)
+      if (clients.isInvalidSslHost(url.getHost)) {
+        clients.insecure.execute(get)
       } else {
         try {
           http.execute(get)
         } catch {
           case e: SSLException =>
             logger.error(s"Could not establish SSL connection while retrieving $url, trying to establish SSL connection without certificate check.", e)
-            this.synchronized {
-              invalidSslHosts = invalidSslHosts + url.getHost
-            }
-            wrongSslHttp.execute(get)
+            clients.addInvalidSslHost(url.getHost)
+            clients.insecure.execute(get)
           case NonFatal(e) =>
             logger.error("Something bad happened while retrieving " + url)
             throw e
@@ -160,12 +82,139 @@ trait Http { this: Logging =>
 
   def httpGet(url: URI): CloseableHttpResponse = fallBackToInsecureSsl(new HttpGet(url))
 
-  def httpGetIfNotModified(url: String, ifModifiedSince: Option[DateTime]): CloseableHttpResponse = {
+  /**
+   * The server answers with 304 Not Modified if the content still matches the validators of an earlier response.
+   */
+  def httpGetIfChanged(url: URI, validators: Option[HttpValidators]): CloseableHttpResponse = {
     val get = new HttpGet(url)
-    ifModifiedSince.foreach { t =>
-      get.setHeader("If-Modified-Since", formatAsRFC2616(t))
+    validators.foreach { v =>
+      v.etag.foreach(get.setHeader("If-None-Match", _))
+      v.lastModified.foreach(get.setHeader("If-Modified-Since", _))
     }
     fallBackToInsecureSsl(get)
   }
 
 }
+
+/**
+ * The ETag and Last-Modified headers of a response, as they are sent back in a conditional request.
+ */
+case class HttpValidators(etag: Option[String] = None, lastModified: Option[String] = None)
+
+/**
+ * The HTTP clients are shared by everything that trusts the same certificates, so that
+ * connections are pooled and kept alive across fetchers and validation runs. Responses
+ * are decompressed transparently when the server sends them gzip or deflate encoded.
+ */
+object Http {
+
+  def validators(response: HttpResponse) = HttpValidators(
+    Option(response.getFirstHeader("ETag")).map(_.getValue),
+    Option(response.getFirstHeader("Last-Modified")).map(_.getValue))
+
+  private[config] val clients = new SimpleSingletons[File, HttpClients](new HttpClients(_))
+
+  private[config] class HttpClients(trustedCertsLocation: File) extends Logging {
+
+    private val customKeyStore = KeyStore.getInstance("jceks")
+    customKeyStore.load(null)
+
+    private val systemTrustedCertificates = {
+      val tmf = TrustManagerFactory.getInstance("PKIX")
+      tmf.init(null.asInstanceOf[KeyStore])
+      tmf.getTrustManagers.withFilter(_.isInstanceOf[X509TrustManager]).flatMap(_.asInstanceOf[X509TrustManager].getAcceptedIssuers)
+    }
+
+    systemTrustedCertificates.foreach(putCertificateInKeyStore)
+    loadCertificatesFromDir(trustedCertsLocation).foreach {
+      case Success(cert) => putCertificateInKeyStore(cert)
+      case Failure(e) => logger.error(e)
+    }
+
+    private def loadCertificatesFromDir(dir: File): Array[Try[X509Certificate]] = {
+      lazy val cf = CertificateFactory.getInstance("X.509")
+      def loadCertificateFromFile(f: File): Try[X509Certificate] = {
+        Try {
+          cf.generateCertificate(new BufferedInputStream(new FileInputStream(f))).asInstanceOf[X509Certificate]
+        } recoverWith {
+          case e: Exception =>
+            Failure(new RuntimeException(s"Error loading certificate from file $f: ${e.getMessage}", e))
+        }
+      }
+
+      if (!dir.isDirectory) {
+        Array()
+      } else {
+        try {
+          dir.listFiles().withFilter(f => f.isFile && !f.getName.equals(".keep")).map(f => loadCertificateFromFile(f))
+        } catch {
+          case e: Exception =>
+            Array(Failure(new RuntimeException(s"Error reading trusted certificates from $dir: ${e.getMessage}", e)))
+        }
+      }
+    }
+
+    private def putCertificateInKeyStore(cert: X509Certificate): Unit = {
+      customKeyStore.setCertificateEntry(cert.getSubjectDN.getName, cert)
+    }
+
+    private val httpRequestConfig = RequestConfig.custom()
+      .setConnectTimeout(ApplicationOptions.httpConnectTimeout.toMillis.toInt)
+      .setSocketTimeout(ApplicationOptions.httpSocketTimeout.toMillis.toInt)
+      // waiting for a connection from the pool
+      .setConnectionRequestTimeout(ApplicationOptions.httpSocketTimeout.toMillis.toInt)
+      .build()
+
+    private val customSslContext = SSLContexts.custom()
+      .useTLS()
+      .loadTrustMaterial(customKeyStore)
+      .build()
+
+    private def split(property: String) =
+      Option(System.getProperty(property)).filter(_.trim.nonEmpty).map(_.split(" *, *")).orNull
+
+    private def pooledClient(sslContext: SSLContext, hostnameVerifier: X509HostnameVerifier) = {
+      val sslSocketFactory = new SSLConnectionSocketFactory(sslContext,
+        split("https.protocols"), split("https.cipherSuites"), hostnameVerifier)
+
+      val connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.create[ConnectionSocketFactory]()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory)
+        .register("https", sslSocketFactory)
+        .build())
+      connectionManager.setMaxTotal(ApplicationOptions.httpMaxConnections)
+      connectionManager.setDefaultMaxPerRoute(ApplicationOptions.httpMaxConnectionsPerHost)
+
+      HttpClientBuilder.create()
+        .useSystemProperties()
+        .setDefaultRequestConfig(httpRequestConfig)
+        .setConnectionManager(connectionManager)
+        .build()
+    }
+
+    val secure = pooledClient(customSslContext, SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER)
+
+    lazy val insecure = {
+      val acceptingTrustStrategy = new TrustStrategy() {
+        override def isTrusted(chain: Array[X509Certificate], authType: String) = true
+      }
+
+      val emptyKeyStore = KeyStore.getInstance(KeyStore.getDefaultType)
+      emptyKeyStore.load(null.asInstanceOf[InputStream], "".toCharArray)
+
+      val sslConext = SSLContexts.custom()
+        .useTLS()
+        .loadTrustMaterial(emptyKeyStore, acceptingTrustStrategy)
+        .build()
+
+      pooledClient(sslConext, SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)
+    }
+
+    @volatile private var invalidSslHosts = Set[String]()
+
+    def isInvalidSslHost(host: String) = invalidSslHosts.contains(host)
+
+    def addInvalidSslHost(host: String) = synchronized {
+      invalidSslHosts = invalidSslHosts + host
+    }
+  }
+}
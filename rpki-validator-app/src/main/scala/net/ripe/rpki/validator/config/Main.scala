@@ -45,25 +45,27 @@ import net.ripe.rpki.validator.models.validation.RepositoryObject.ROType
 import net.ripe.rpki.validator.models.validation._
 import net.ripe.rpki.validator.models.{Idle, IgnoreFilter, TrustAnchorData, _}
 import net.ripe.rpki.validator.rtr.{Pdu, RTRServer}
-import net.ripe.rpki.validator.store.{CacheStore, DurableCaches}
+import net.ripe.rpki.validator.store.{Caches, RepoFailures, Storage}
 import net.ripe.rpki.validator.util.TrustAnchorLocator
 import org.apache.commons.io.FileUtils
 import org.eclipse.jetty.server.Server
-import org.joda.time.DateTime
+import org.joda.time.Instant
 import org.slf4j.LoggerFactory
 import scalaz.{Failure, Success}
 
 import scala.collection.JavaConverters._
 import scala.concurrent.Future
 import scala.concurrent.stm._
-import scala.math.Ordering.Implicits._
 
 object Main {
   private val sessionId: Pdu.SessionId = Pdu.randomSessionid
 
-  def main(args: Array[String]): Unit = {
-    setupLogging()
-    new Main()
+  def main(args: Array[String]): Unit = args.toSeq match {
+    case Seq("wipe-rsync-cache") =>
+      wipeRsyncDiskCache()
+    case _ =>
+      setupLogging()
+      new Main()
   }
 
   private def setupLogging() {
@@ -72,6 +74,18 @@ object Main {
     System.setErr(new PrintStream(new LoggingOutputStream(), true))
     LoggerFactory.getLogger(this.getClass).info("Starting up the RPKI validator...")
   }
+
+  /**
+   * The rsync mirror is kept across restarts, so that rsync only transfers what changed
+   * in the meantime. This throws it away, for when it is suspected to be broken.
+   */
+  private def wipeRsyncDiskCache() {
+    val diskCache = new File(ApplicationOptions.rsyncDirLocation)
+    if (diskCache.isDirectory) {
+      FileUtils.cleanDirectory(diskCache)
+    }
+    println(s"Wiped the rsync cache in ${diskCache.getAbsolutePath}")
+  }
 }
 
 class Main extends Http with Logging { main =>
@@ -105,7 +119,7 @@ class Main extends Http with Logging { main =>
   val memoryImage = Ref(
     MemoryImage(data.filters, data.whitelist, new TrustAnchors(trustAnchors), roas))
 
-  var store : CacheStore = _
+  var store : Storage = _
 
   def updateMemoryImage(f: MemoryImage => MemoryImage)(implicit transaction: MaybeTxn) {
     atomic { implicit transaction =>
@@ -125,14 +139,28 @@ class Main extends Http with Logging { main =>
     }
   }
 
-  wipeRsyncDiskCache()
-
   val rtrServer = runRtrServer()
 
   runWebServer()
 
-  actorSystem.scheduler.schedule(initialDelay = 0.seconds, interval = 10.seconds) { runValidator(false) }
+  // validates every trust anchor when something in it can have changed, see TrustAnchors.nextValidation
+  private lazy val validationScheduler = new ValidationScheduler(
+    () => memoryImage.single.get.trustAnchors.all.filter(_.enabled).flatMap { ta =>
+      ta.status match {
+        case Idle(nextUpdate, _) => Some(ta.name -> nextUpdate)
+        case _ => None
+      }
+    },
+    trustAnchorNames => runValidator(trustAnchorNames, forceNewFetch = false))
+
+  warmStart() onComplete { _ =>
+    validationScheduler.reschedule()
+  }
   actorSystem.scheduler.schedule(initialDelay = 0.seconds, interval = 2.hours) { refreshRisDumps() }
+  actorSystem.scheduler.schedule(initialDelay = 1.minute, interval = ApplicationOptions.cacheCollectorInterval) { collectCacheGarbage() }
+  if (!ApplicationOptions.cacheInMemory) {
+    actorSystem.scheduler.schedule(initialDelay = ApplicationOptions.cacheCompressInterval, interval = ApplicationOptions.cacheCompressInterval) { compressCache() }
+  }
 
   private def loadTrustAnchors(): TrustAnchors = {
     val tals = FileUtils.listFiles(ApplicationOptions.talDirLocation, Array("tal"), false)
@@ -148,48 +176,96 @@ class Main extends Http with Logging { main =>
     }
   }
 
-  private def runValidator(forceNewFetch: Boolean) {
-    import lib.DateAndTime._
+  /**
+   * Validates the enabled trust anchors against the local cache only and publishes the result,
+   * so that there are VRPs to serve while the first fetch-and-validate cycle is still running.
+   */
+  private def warmStart(): Future[Unit] =
+    if (!ApplicationOptions.enableWarmStart || ApplicationOptions.cacheInMemory) Future.successful(())
+    else {
+      val maxStaleDays = userPreferences.single.get.maxStaleDays
+      val cacheStore = Caches(ApplicationOptions.workDirLocation)
+      val enabledTrustAnchors = memoryImage.single.get.trustAnchors.all.filter(_.enabled)
+
+      Future.traverse(enabledTrustAnchors) { ta =>
+        Future {
+          val repoService = new RepoService(RepoFetcher(ApplicationOptions.workDirLocation, fetcherConfig), cacheOnly = true)
+          val process = new TrustAnchorValidationProcess(ta.locator, cacheStore, repoService, maxStaleDays, ta.name, ApplicationOptions.enableLooseValidation)
+          val (result, elapsed) = DateAndTime.timed {
+            process.runProcess(forceNewFetch = false)
+          }
+          result match {
+            case Success(validatedObjects) if validatedObjects.exists(_.isValid) =>
+              updateMemoryImage { image =>
+                // don't overwrite the result of a validation with fresh data
+                if (image.trustAnchors.all.exists(t => t.locator == ta.locator && t.lastUpdated.isEmpty))
+                  image.updateValidatedObjects(ta.locator, validatedObjects)
+                else
+                  image
+              }
+              logger.info(s"Warm start: published ${validatedObjects.size} objects for ${ta.name} from the local cache in ${elapsed / 1000.0}s")
+            case _ =>
+              logger.info(s"Warm start: nothing usable in the local cache for ${ta.name}")
+          }
+        }
+      }.map(_ => ())
+    }
 
-    val now = new DateTime
-    val needUpdating = for {
-      ta <- memoryImage.single.get.trustAnchors.all if ta.status.isIdle
-      Idle(nextUpdate, _) = ta.status
-      if nextUpdate <= now
-    } yield ta.name
+  private def collectCacheGarbage() {
+    val (collected, elapsed) = DateAndTime.timed {
+      Caches(ApplicationOptions.workDirLocation).clearObjects(Instant.now)
+    }
+    logger.info(s"Cache collector reclaimed ${collected.objects} object(s), ${collected.urls} URL(s), ${collected.bytes} bytes in ${elapsed / 1000.0}s")
+  }
 
-    runValidator(needUpdating, forceNewFetch)
+  private def compressCache() {
+    val (saving, elapsed) = DateAndTime.timed {
+      Caches(ApplicationOptions.workDirLocation).compress()
+    }
+    logger.info(s"Compressed the cache store, about $saving bytes of disk space reclaimed in ${elapsed / 1000.0}s")
   }
 
+  private def fetcherConfig = FetcherConfig(ApplicationOptions.rsyncDirLocation,
+    mirrorDir = ApplicationOptions.mirrorDirLocation,
+    recordDir = ApplicationOptions.fetchRecordDirLocation,
+    replayDir = ApplicationOptions.fetchReplayDirLocation,
+    replayLatencyFactor = ApplicationOptions.fetchReplayLatencyFactor)
+
+  // shared by all the trust anchors, so that they share the fetches of the repositories as well
+  private lazy val repoService = new RepoService(RepoFetcher(ApplicationOptions.workDirLocation, fetcherConfig))
+
   private def runValidator(trustAnchorNames: Seq[String], forceNewFetch: Boolean) {
     val maxStaleDays = userPreferences.single.get.maxStaleDays
     val trustAnchors = memoryImage.single.get.trustAnchors.all
 
     val taLocators = trustAnchorNames.flatMap { name => trustAnchors.find(_.name == name) }
 
-    store = DurableCaches(ApplicationOptions.workDirLocation)
+    store = Caches(ApplicationOptions.workDirLocation)
 
     for (trustAnchorLocator <- taLocators) {
       Future {
-        val repoService = new RepoService(RepoFetcher(ApplicationOptions.workDirLocation, FetcherConfig(ApplicationOptions.rsyncDirLocation)))
-
-        val process = new TrustAnchorValidationProcess(trustAnchorLocator.locator,
-          store,
-          repoService,
-          maxStaleDays,
-          trustAnchorLocator.name,
-          ApplicationOptions.enableLooseValidation
-        ) with TrackValidationProcess with ValidationProcessLogger {
-          override val memoryImage = main.memoryImage
-        }
         try {
-          process.runProcess(forceNewFetch) match {
-            case Success(validatedObjects) =>
-              updateMemoryImage(_.updateValidatedObjects(trustAnchorLocator.locator, validatedObjects))
-            case Failure(_) =>
+          val process = new TrustAnchorValidationProcess(trustAnchorLocator.locator,
+            store,
+            repoService,
+            maxStaleDays,
+            trustAnchorLocator.name,
+            ApplicationOptions.enableLooseValidation
+          ) with TrackValidationProcess with ValidationProcessLogger {
+            override val memoryImage = main.memoryImage
+          }
+          try {
+            process.runProcess(forceNewFetch) match {
+              case Success(validatedObjects) =>
+                updateMemoryImage(_.updateValidatedObjects(trustAnchorLocator.locator, validatedObjects))
+              case Failure(_) =>
+            }
+          } finally {
+            process.shutdown()
           }
         } finally {
-          process.shutdown()
+          // also when the process could not be created, or the trust anchor would never be validated again
+          validationScheduler.reschedule()
         }
       }
     }
@@ -283,14 +359,18 @@ class Main extends Http with Logging { main =>
       override def userPreferences = main.userPreferences.single.get
       override def updateUserPreferences(userPreferences: UserPreferences) = updateAndPersist { implicit transaction => main.userPreferences.set(userPreferences) }
 
-      override protected def updateTrustAnchorState(locator: TrustAnchorLocator, enabled: Boolean) = updateAndPersist { implicit transaction =>
-        memoryImage.transform(_.updateTrustAnchorState(locator, enabled))
+      override protected def updateTrustAnchorState(locator: TrustAnchorLocator, enabled: Boolean) = {
+        updateAndPersist { implicit transaction =>
+          memoryImage.transform(_.updateTrustAnchorState(locator, enabled))
+        }
+        validationScheduler.reschedule()
       }
     }
 
     val restApiServlet = new RestApi() {
       override protected def getVrpObjects: Seq[RtrPrefix] = memoryImage.single.get.getDistinctRtrPrefixes
       override protected def getCachedObjects: Seq[ROType] = store.getAllObjects
+      override protected def getRepositoryFailures = RepoFailures.all
     }
 
     val validityServlet = new ValidityServlet() {
@@ -329,11 +409,4 @@ class Main extends Http with Logging { main =>
     server
   }
 
-  private def wipeRsyncDiskCache() {
-    val diskCache = new File(ApplicationOptions.rsyncDirLocation)
-    if (diskCache.isDirectory) {
-      FileUtils.cleanDirectory(diskCache)
-    }
-  }
-
 }
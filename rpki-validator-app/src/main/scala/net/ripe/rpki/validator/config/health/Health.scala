@@ -32,6 +32,7 @@ package net.ripe.rpki.validator.config.health
 import net.ripe.rpki.commons.rsync.Rsync
 import net.ripe.rpki.commons.validation.ValidationStatus
 import net.ripe.rpki.validator.config.ApplicationOptions
+import net.ripe.rpki.validator.fetchers.RsyncScheduler
 import net.ripe.rpki.validator.models.ValidatedObjects
 import org.joda.time.format.ISODateTimeFormat
 import org.joda.time.{DateTime, Instant}
@@ -60,7 +61,32 @@ object Health {
     }
   }
 
-  def rsyncStatus(): Status = try {
+  /**
+   * Keeps the outcome of the check for the given time, so that it doesn't run for every request.
+   */
+  private[validator] class CachedStatus(validity: org.joda.time.Duration)(check: => Status) {
+    @volatile private var last: Option[(Instant, Status)] = None
+
+    def apply(now: Instant = Instant.now): Status =
+      last.filter(_._1.plus(validity).isAfter(now)).map(_._2).getOrElse {
+        val status = check
+        last = Some(now -> status)
+        status
+      }
+  }
+
+  // forks rsync, so that it happens at most every few minutes
+  private val rsyncVersionCheck = new CachedStatus(org.joda.time.Duration.standardMinutes(5))(checkRsync())
+
+  def rsyncStatus(): Status =
+    if (ApplicationOptions.mirrorDirLocation.isDefined || ApplicationOptions.fetchReplayDirLocation.isDefined)
+      Status.ok("Repositories are not fetched with rsync")
+    else if (ApplicationOptions.rsyncInProcess)
+      Status.ok("Repositories are fetched with the built-in rsync client")
+    else
+      rsyncVersionCheck()
+
+  private def checkRsync(): Status = try {
     val rsync = new Rsync
     rsync.addOptions("--version")
     val rc = rsync.execute()
@@ -73,6 +99,10 @@ object Health {
       Status.validationError(e.getMessage)
   }
 
+  def rsyncSchedulerStatus(metrics: RsyncScheduler.Metrics): Status =
+    Status.ok(s"running: ${metrics.running}, queued: ${metrics.queued}, completed: ${metrics.completed}, " +
+      s"killed at the deadline: ${metrics.killed}, average wait: ${metrics.averageWaitMillis} ms")
+
   def getTasStatus(objects: ValidatedObjects): Map[String, Status] = {
     objects.validationStatusCountByTal.map { case (tal, counters) =>
       val status = counters.get(ValidationStatus.ERROR).map { e =>
@@ -59,6 +59,7 @@
 package net.ripe.rpki.validator.config.health
 
 import javax.servlet.http.{HttpServlet, HttpServletRequest, HttpServletResponse}
+import net.ripe.rpki.validator.fetchers.RsyncScheduler
 import net.ripe.rpki.validator.models.{TrustAnchors, ValidatedObjects}
 
 object Code extends Enumeration {
@@ -99,6 +100,8 @@ abstract class ValidityServlet extends HttpServlet {
       Health.getTasStatus(getValidatedObjects) ++ Map(
         "rsync" ->
           Health.rsyncStatus(),
+        "rsync-processes" ->
+          Health.rsyncSchedulerStatus(RsyncScheduler.shared.metrics),
         "last-validation" ->
           Health.getValidationTimeStatus(getTrustAnchors.all.filter(_.enabled).map(_.lastUpdated)),
         "memory" ->
@@ -0,0 +1,162 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.{File, IOException}
+import java.net.URI
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.{FileVisitResult, Files, Path, SimpleFileVisitor}
+
+import java.util.concurrent.Executors
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+
+import scala.collection.concurrent.TrieMap
+import scala.collection.mutable
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+object DirectoryReader {
+
+  case class IngestedFile(length: Long, lastModified: Long, url: URI, hash: String)
+
+  // what has been ingested from every file, by local repository directory,
+  // so that next time only the files that changed are read again
+  private val ingested = TrieMap[String, Map[String, IngestedFile]]()
+
+  private val parallelism = Runtime.getRuntime.availableProcessors
+
+  // shared by all the fetchers, so that reading and parsing files never takes more than all the cores
+  private val readers = ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(parallelism,
+    new ThreadFactoryBuilder().setNameFormat("directory-reader-%d").setDaemon(true).build()))
+
+  // how many files can be read ahead of the one being handed over to the listener
+  private val readAhead = 4 * parallelism
+}
+
+/**
+ * Reads the objects of a repository from a local directory, the one rsync downloads to or a mirror
+ * maintained by something else.
+ */
+trait DirectoryReader {
+
+  this: Fetcher =>
+
+  import DirectoryReader._
+  import net.ripe.rpki.validator.fetchers.Fetcher._
+
+  /**
+   * All the regular files under the directory, with the attributes read while walking it.
+   */
+  private def files(root: File): Map[String, BasicFileAttributes] = {
+    var found = Map[String, BasicFileAttributes]()
+    Files.walkFileTree(root.toPath, new SimpleFileVisitor[Path] {
+      override def visitFile(file: Path, attributes: BasicFileAttributes) = {
+        if (attributes.isRegularFile) found += file.toAbsolutePath.toString -> attributes
+        FileVisitResult.CONTINUE
+      }
+
+      // a file that disappears while walking is simply not there
+      override def visitFileFailed(file: Path, e: IOException) = FileVisitResult.CONTINUE
+    })
+    found
+  }
+
+  /**
+   * Hands the files that are new or changed since the last time over to the listener, and withdraws
+   * the ones that are gone. Like rsync itself, a file is considered unchanged when its size and
+   * modification time are. Files that could not be processed are read again next time.
+   *
+   * The directory outlives restarts while this index does not, so the first time a directory
+   * is read every file is reconciled with the object store: the ones that are stored already under
+   * the same url and hash are not parsed again.
+   *
+   * The files are read, hashed and parsed in parallel, up to `readAhead` files ahead of the one being
+   * handed over, and handed over to the listener on the calling thread.
+   */
+  def readObjects(tmpRoot: File, repoUrl: URI, fetcherListener: FetcherListener): Seq[Error] = {
+    val replacement = {
+      val s = repoUrl.toString
+      if (s.endsWith("/")) s.dropRight(1) else s
+    }
+
+    def rsyncUrl(f: File) =
+      new URI(if (replacement.endsWith(f.getName))
+        replacement
+      else
+        f.getAbsolutePath.replaceAll(tmpRoot.getAbsolutePath, replacement))
+
+    val root = tmpRoot.getAbsolutePath
+    val previously = ingested.getOrElse(root, Map[String, IngestedFile]())
+    val present = files(tmpRoot)
+
+    val (unchanged, changed) = present.partition { case (path, attributes) =>
+      previously.get(path).exists(i => i.length == attributes.size && i.lastModified == attributes.lastModifiedTime.toMillis)
+    }
+
+    // starts reading the file and returns the function handing it over to the listener
+    def ingest(path: String, attributes: BasicFileAttributes): () => Either[Error, (String, IngestedFile)] = {
+      val file = new File(path)
+      val read = Future {
+        readFile(file).right.flatMap { bytes =>
+          val url = rsyncUrl(file)
+          val hash = stringify(getHash(bytes))
+          val parsed =
+            if (fetcherListener.isKnown(url, hash)) Right(None)
+            else parseObject(url, bytes).right.map(Some(_))
+          parsed.right.map((_, IngestedFile(attributes.size, attributes.lastModifiedTime.toMillis, url, hash)))
+        }
+      }(readers)
+      () => tryTo(file.toURI)(processingE)(Await.result(read, 5.minutes)).joinRight.right.map { case (parsed, ingestedFile) =>
+        parsed.foreach(fetcherListener.processObject)
+        path -> ingestedFile
+      }
+    }
+
+    val results = {
+      val handedOver = Vector.newBuilder[Either[Error, (String, IngestedFile)]]
+      val pending = mutable.Queue[() => Either[Error, (String, IngestedFile)]]()
+      changed.foreach { case (path, attributes) =>
+        pending.enqueue(ingest(path, attributes))
+        if (pending.size > readAhead) handedOver += pending.dequeue()()
+      }
+      while (pending.nonEmpty) handedOver += pending.dequeue()()
+      handedOver.result()
+    }
+
+    val gone = previously.collect { case (path, i) if !present.contains(path) => i }
+    gone.foreach(i => fetcherListener.withdraw(i.url, i.hash))
+
+    ingested.put(root, previously.filter(p => unchanged.contains(p._1)) ++ results.collect { case Right(i) => i })
+    logger.info(s"Read ${changed.size} new or changed file(s) and withdrew ${gone.size} deleted file(s) out of ${present.size} in $root")
+
+    results.collect { case Left(e) => e }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io._
+import java.net.URI
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
+
+import net.ripe.rpki.validator.fetchers.Fetcher._
+
+/**
+ * What a fetcher handed over to its listener during one fetch, in order, and how long the fetch took.
+ */
+case class RecordedFetch(url: URI, elapsedMillis: Long, events: Seq[RecordedFetch.Event]) {
+  def errors: Seq[Fetcher.Error] = events.collect { case RecordedFetch.Failed(e) => e }
+}
+
+object RecordedFetch {
+  sealed trait Event
+  case class Published(url: URI, encoded: Array[Byte]) extends Event
+  case class Withdrawn(url: URI, hash: String) extends Event
+  case class Failed(error: Fetcher.Error) extends Event
+}
+
+/**
+ * A directory with one gzipped file per recorded fetch, numbered in the order the fetches finished,
+ * so that the fetches of a whole validation run can be replayed later.
+ */
+class FetchArchive(directory: File) {
+  import RecordedFetch._
+
+  private val Extension = ".fetch.gz"
+  private val sequence = new java.util.concurrent.atomic.AtomicLong(
+    Option(directory.list).toSeq.flatten.count(_.endsWith(Extension)))
+
+  def write(fetch: RecordedFetch): Unit = {
+    directory.mkdirs()
+    val file = new File(directory, f"${sequence.incrementAndGet()}%08d$Extension")
+    val out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))
+    try {
+      out.writeUTF(fetch.url.toString)
+      out.writeLong(fetch.elapsedMillis)
+      out.writeInt(fetch.events.size)
+      fetch.events.foreach {
+        case Published(url, encoded) =>
+          out.writeByte('P')
+          out.writeUTF(url.toString)
+          out.writeInt(encoded.length)
+          out.write(encoded)
+        case Withdrawn(url, hash) =>
+          out.writeByte('W')
+          out.writeUTF(url.toString)
+          out.writeUTF(hash)
+        case Failed(error) =>
+          out.writeByte('E')
+          out.writeUTF(error match {
+            case _: ConnectionError => "connection"
+            case _: ProcessingError => "processing"
+            case _: ParseError => "parse"
+          })
+          out.writeUTF(error.url.toString)
+          out.writeUTF(Option(error.message).getOrElse("").take(10000))
+      }
+    } finally {
+      out.close()
+    }
+  }
+
+  private def files = Option(directory.listFiles).toSeq.flatten.filter(_.getName.endsWith(Extension)).sortBy(_.getName)
+
+  private def open(file: File) = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))
+
+  /**
+   * The url of every recorded fetch and the file it is in, in the order they were recorded. Only the url
+   * at the start of every file is read, the objects are read when the fetch is replayed.
+   */
+  def index(): Seq[(URI, File)] = files.map { file =>
+    val in = open(file)
+    try URI.create(in.readUTF()) -> file finally in.close()
+  }
+
+  def read(file: File): RecordedFetch = {
+    val in = open(file)
+    try {
+      val url = URI.create(in.readUTF())
+      val elapsedMillis = in.readLong()
+      val events = (1 to in.readInt()).map { _ =>
+        in.readByte().toChar match {
+          case 'P' =>
+            val objectUrl = URI.create(in.readUTF())
+            val encoded = new Array[Byte](in.readInt())
+            in.readFully(encoded)
+            Published(objectUrl, encoded)
+          case 'W' =>
+            Withdrawn(URI.create(in.readUTF()), in.readUTF())
+          case 'E' =>
+            val kind = in.readUTF()
+            val errorUrl = URI.create(in.readUTF())
+            val message = in.readUTF()
+            Failed(kind match {
+              case "connection" => ConnectionError(errorUrl, message)
+              case "processing" => ProcessingError(errorUrl, message)
+              case _ => ParseError(errorUrl, message)
+            })
+          case other =>
+            throw new IOException(s"Unknown event '$other' in ${file.getAbsolutePath}")
+        }
+      }
+      RecordedFetch(url, elapsedMillis, events)
+    } finally {
+      in.close()
+    }
+  }
+}
@@ -29,14 +29,17 @@
  */
 package net.ripe.rpki.validator.fetchers
 
+import java.io.File
 import java.net.URI
+import java.nio.file.Files
 
 import grizzled.slf4j.Logging
 import net.ripe.rpki.validator.models.validation._
 
 import scala.util.control.NonFatal
 
-case class FetcherConfig(rsyncDir: String, urlMap: Seq[(String, String)] = Seq()) {
+case class FetcherConfig(rsyncDir: String, urlMap: Seq[(String, String)] = Seq(), mirrorDir: Option[File] = None,
+                         recordDir: Option[File] = None, replayDir: Option[File] = None, replayLatencyFactor: Double = 0) {
   def mapUri(u: URI): URI = {
     val s = urlMap.foldLeft(u.toString) { case (s1, (f, t)) =>
       s1.replaceAll(f, t)
@@ -48,6 +51,12 @@ case class FetcherConfig(rsyncDir: String, urlMap: Seq[(String, String)] = Seq()
 trait FetcherListener {
   def processObject(repoObj: RepositoryObject.ROType)
   def withdraw(url: URI, hash: String)
+
+  /**
+   * Whether the object with this url and hash is already known, so that it doesn't have to be
+   * parsed and processed again. May be called from other threads than the other methods.
+   */
+  def isKnown(url: URI, hash: String): Boolean = false
 }
 
 object Fetcher {
@@ -66,7 +75,12 @@ trait Fetcher extends Hashing with Logging {
 
   def fetch(url: URI, process: FetcherListener): Seq[Error]
 
-  protected def processObject(uri: URI, bytes: Array[Byte], fetcherListener: FetcherListener): Either[Error, Unit] = {
+  protected def processObject(uri: URI, bytes: Array[Byte], fetcherListener: FetcherListener): Either[Error, Unit] =
+    parseObject(uri, bytes).right.map { ro =>
+      fetcherListener.processObject(ro)
+    }
+
+  protected def parseObject(uri: URI, bytes: Array[Byte]): Either[Error, RepositoryObject.ROType] = {
     def checkIfBroken[T](parsed: => Either[BrokenObject, T]) =
       parsed.left.map { bo =>
         ProcessingError(uri, "Could not parse object")
@@ -76,7 +90,7 @@ trait Fetcher extends Hashing with Logging {
     tryTo(uri)(processingE) {
       uriStr.takeRight(4).toLowerCase
     }.right.flatMap { extension =>
-      val repoObject = extension match {
+      extension match {
         case ".cer" => checkIfBroken(CertificateObject.tryParse(uriStr, bytes))
         case ".mft" => checkIfBroken(ManifestObject.tryParse(uriStr, bytes))
         case ".crl" => checkIfBroken(CrlObject.tryParse(uriStr, bytes))
@@ -85,12 +99,16 @@ trait Fetcher extends Hashing with Logging {
         case _ =>
           Left(ProcessingError(uri, "Found unknown file $f"))
       }
-      repoObject.right.map { ro =>
-        fetcherListener.processObject(ro)
-      }
     }
   }
 
+  /**
+   * Reads the whole file.
+   */
+  def readFile(f: File): Either[Error, Array[Byte]] = tryTo(new URI(f.getAbsolutePath))(processingE) {
+    Files.readAllBytes(f.toPath)
+  }
+
   protected def connectionE = (u: URI, s: String) => ConnectionError(u, s)
   protected def processingE = (u: URI, s: String) => ProcessingError(u, s)
   protected def parseE = (u: URI, s: String) => ParseError(u, s)
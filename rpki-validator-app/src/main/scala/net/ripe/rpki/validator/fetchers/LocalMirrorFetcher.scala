@@ -0,0 +1,59 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.File
+import java.net.URI
+
+/**
+ * Reads repositories from a local mirror instead of fetching them, for validators that run without
+ * network access or share the mirror another process keeps up to date. The mirror has the same layout
+ * as the rsync directory: rsync://host/module/path is found at host/module/path under it.
+ *
+ * Works both for publication points and for single objects, such as trust anchor certificates.
+ */
+class LocalMirrorFetcher(config: FetcherConfig, mirrorDir: File) extends Fetcher with DirectoryReader {
+
+  import net.ripe.rpki.validator.fetchers.Fetcher._
+
+  def mirrorLocation(url: URI): File = new File(mirrorDir, config.mapUri(url).toString.replaceAll("rsync://", ""))
+
+  override def fetch(url: URI, fetcherListener: FetcherListener): Seq[Error] = {
+    val location = mirrorLocation(url)
+    if (location.isDirectory) {
+      logger.info(s"Reading the repository $url from the mirror ${location.getAbsolutePath}")
+      readObjects(location, url, fetcherListener)
+    } else if (location.isFile) {
+      readFile(location).right.flatMap(processObject(url, _, fetcherListener)).left.toSeq
+    } else {
+      Seq(ConnectionError(url, s"$url is not in the local mirror ${mirrorDir.getAbsolutePath}"))
+    }
+  }
+}
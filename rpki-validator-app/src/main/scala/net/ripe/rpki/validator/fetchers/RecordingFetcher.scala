@@ -0,0 +1,71 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.net.URI
+
+import net.ripe.rpki.validator.fetchers.RecordedFetch._
+import net.ripe.rpki.validator.models.validation.RepositoryObject
+
+/**
+ * Records everything the fetcher hands over to the listener in the archive, for replaying it later
+ * with the [[ReplayFetcher]]. Nothing is known while recording, so that the objects the cache holds
+ * already are handed over and recorded as well, and the recording can be replayed into an empty cache.
+ */
+class RecordingFetcher(fetcher: Fetcher, archive: FetchArchive) extends Fetcher {
+
+  override def fetch(url: URI, fetcherListener: FetcherListener): Seq[Fetcher.Error] = {
+    val events = Vector.newBuilder[Event]
+    def record(event: Event) = events.synchronized(events += event)
+
+    val start = System.currentTimeMillis
+    val errors = fetcher.fetch(url, new FetcherListener {
+      override def processObject(repoObj: RepositoryObject.ROType) = {
+        record(Published(URI.create(repoObj.url), repoObj.encoded))
+        fetcherListener.processObject(repoObj)
+      }
+
+      override def withdraw(url: URI, hash: String) = {
+        record(Withdrawn(url, hash))
+        fetcherListener.withdraw(url, hash)
+      }
+
+      override def isKnown(url: URI, hash: String) = false
+    })
+    val elapsed = System.currentTimeMillis - start
+
+    try {
+      archive.write(RecordedFetch(url, elapsed, events.synchronized(events.result()) ++ errors.map(Failed)))
+    } catch {
+      case e: Exception => logger.warn(s"Could not record the fetch of $url: ${e.getMessage}")
+    }
+    errors
+  }
+}
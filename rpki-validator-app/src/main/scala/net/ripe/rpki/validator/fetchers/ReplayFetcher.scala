@@ -0,0 +1,97 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.File
+import java.net.URI
+
+import net.ripe.rpki.validator.fetchers.Fetcher.ConnectionError
+import net.ripe.rpki.validator.fetchers.RecordedFetch._
+
+/**
+ * The fetches recorded in an archive, by url, to be replayed in the order they were recorded. A recorded
+ * fetch is only read from the archive when it is replayed.
+ */
+class FetchReplay(archive: FetchArchive) {
+
+  // a repository that has been replayed completely is left with an empty fetch
+  private var remaining: Map[URI, List[Option[File]]] =
+    archive.index().groupBy(_._1).mapValues(_.map(f => Option(f._2)).toList).toMap
+
+  /**
+   * The next recorded fetch of the url. A repository that has been replayed completely doesn't change anymore,
+   * a single object keeps being there.
+   */
+  def next(url: URI, singleObject: Boolean): Option[RecordedFetch] = {
+    val file = synchronized {
+      remaining.get(url).map {
+        case last :: Nil =>
+          if (!singleObject) remaining += url -> List(None)
+          last
+        case next :: rest =>
+          remaining += url -> rest
+          next
+        case Nil =>
+          None
+      }
+    }
+    file.map(_.fold(RecordedFetch(url, 0, Seq()))(archive.read))
+  }
+}
+
+object FetchReplay {
+  def apply(archive: FetchArchive): FetchReplay = new FetchReplay(archive)
+}
+
+/**
+ * Serves the recorded fetches back to the listener, parsing the objects again like the original fetcher did.
+ * With a latency factor each fetch takes as long as it did when it was recorded, multiplied by the factor,
+ * so 0 replays as fast as possible and 1 in real time.
+ */
+class ReplayFetcher(replay: FetchReplay, singleObject: Boolean, latencyFactor: Double = 0) extends Fetcher {
+
+  override def fetch(url: URI, fetcherListener: FetcherListener): Seq[Fetcher.Error] =
+    replay.next(url, singleObject) match {
+      case None =>
+        Seq(ConnectionError(url, s"$url is not in the recording"))
+      case Some(recorded) =>
+        val latency = (recorded.elapsedMillis * latencyFactor).toLong
+        if (latency > 0) Thread.sleep(latency)
+        recorded.events.flatMap {
+          case Published(objectUrl, encoded) =>
+            processObject(objectUrl, encoded, fetcherListener).left.toSeq
+          case Withdrawn(objectUrl, hash) =>
+            fetcherListener.withdraw(objectUrl, hash)
+            Seq()
+          case Failed(error) =>
+            Seq(error)
+        }
+    }
+}
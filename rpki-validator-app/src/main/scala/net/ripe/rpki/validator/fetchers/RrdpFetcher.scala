@@ -58,25 +58,40 @@
   */
 package net.ripe.rpki.validator.fetchers
 
+import java.io.{ByteArrayInputStream, File, InputStream}
 import java.net.URI
+import java.nio.file.{Files, StandardCopyOption}
 import java.util.concurrent.Executors
 
-import com.google.common.io.BaseEncoding
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import grizzled.slf4j.Logging
-import net.ripe.rpki.validator.config.{ApplicationOptions, Http}
+import net.ripe.rpki.validator.config.{ApplicationOptions, Http, HttpValidators}
 import net.ripe.rpki.validator.store.HttpFetcherStore
+import org.apache.commons.io.IOUtils
 import org.apache.http.HttpStatus
 import org.apache.http.client.methods.CloseableHttpResponse
-import org.joda.time.DateTime
 
 import scala.collection.immutable.Seq
+import scala.collection.mutable
 import scala.math.BigInt
+import scala.util.Try
 import scala.util.control.NonFatal
 import scala.xml.Elem
 
 object RrdpFetcher {
 
-  private val lastFetchTimes = collection.mutable.Map[URI, DateTime]()
+  private val parallelism = Runtime.getRuntime.availableProcessors
+
+  // shared by all the fetchers, so that parsing never takes more than all the cores
+  private val parsers = scala.concurrent.ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(parallelism,
+    new ThreadFactoryBuilder().setNameFormat("rrdp-parser-%d").setDaemon(true).build()))
+
+  // how many units can be parsed ahead of the one being applied
+  private val parseAhead = 4 * parallelism
+
+  // shared by all the fetchers as well, it bounds the number of deltas downloaded at the same time
+  private val downloads = scala.concurrent.ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(ApplicationOptions.rrdpDeltaDownloads,
+    new ThreadFactoryBuilder().setNameFormat("rrdp-download-%d").setDaemon(true).build()))
 }
 
 class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Logging {
@@ -87,11 +102,7 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
   import scala.concurrent._
   import scala.concurrent.duration._
 
-  class DeltaUnit
-
-  case class PublishUnit(url: URI, hash: String, base64: String) extends DeltaUnit
-
-  case class WithdrawUnit(url: URI, hash: String) extends DeltaUnit
+  import net.ripe.rpki.validator.fetchers.RrdpParser._
 
   case class NotificationDef(sessionId: String, serial: BigInt)
 
@@ -99,38 +110,45 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
 
   case class DeltaDef(serial: BigInt, url: URI, hash: String)
 
-  case class Delta(deltaDef: DeltaDef, units: Seq[DeltaUnit] = Seq())
-
-  case class Snapshot(snapshotDef: SnapshotDef, publishes: Seq[PublishUnit], withdraw: Seq[WithdrawUnit] = Seq())
-
-  private val base64 = BaseEncoding.base64()
-
   override def trustedCertsLocation = ApplicationOptions.trustedSslCertsLocation
 
-  type ChangeSet = Seq[DeltaUnit]
+  /**
+   * Applies the changes to the listener and returns the errors. Snapshots and deltas are
+   * streamed from the network or from disk while they are being applied.
+   */
+  type ChangeSet = FetcherListener => Seq[Error]
+
+  private val noChanges: ChangeSet = _ => Seq()
 
-  implicit val executionContext = ExecutionContext.fromExecutorService(Executors.newCachedThreadPool())
+  implicit val executionContext = RrdpFetcher.downloads
 
-  override def fetch(notificationUrl: URI, fetcherListener: FetcherListener): Seq[Error] = {
-    val fetchTime = new DateTime()
-    getXmlIfModified(notificationUrl, RrdpFetcher.lastFetchTimes.get(notificationUrl)) match {
+  override def fetch(notificationUrl: URI, fetcherListener: FetcherListener): Seq[Error] =
+    getNotificationIfChanged(notificationUrl, store.getValidators(notificationUrl)) match {
       case Left(error) => Seq(error)
-      case Right(Some(xml)) =>
-        RrdpFetcher.lastFetchTimes.put(notificationUrl, fetchTime)
-        processNotificationXml(notificationUrl, xml, fetcherListener)
-      case Right(None) => Seq[Error]()
+      case Right((None, validators)) =>
+        // the session and serial did not change, but the server may have new validators for the same content
+        validators.foreach(v => store.storeNotification(notificationUrl, None, Some(v)))
+        Seq()
+      case Right((Some(xml), validators)) =>
+        val (errors, reached) = processNotificationXml(notificationUrl, xml, fetcherListener)
+        // only skip the notification file next time if everything it refers to has been applied
+        if (errors.isEmpty && (reached.isDefined || validators.isDefined)) {
+          store.storeNotification(notificationUrl, reached.map(nd => (nd.sessionId, nd.serial)), validators)
+        }
+        errors
     }
-  }
 
-  def processNotificationXml(notificationUrl: URI, xml: Elem, fetcherListener: FetcherListener): Seq[Error] = {
+  /**
+   * Applies the snapshot or deltas the notification file refers to, and returns the errors and
+   * the new session and serial reached, if any.
+   */
+  def processNotificationXml(notificationUrl: URI, xml: Elem, fetcherListener: FetcherListener): (Seq[Error], Option[NotificationDef]) = {
 
     val notificationDef = parseNotification(notificationUrl)(xml)
     val snapshotDef = parseSnapshotDef(notificationUrl)(xml)
 
-    def returnSnapshot(lastLocalSerial: Option[BigInt]) = snapshotDef >>= { sd =>
-      getSnapshot(new URI(sd.url), sd)
-    } >>= { snapshot =>
-      Right((snapshot.publishes, lastLocalSerial))
+    def returnSnapshot(lastLocalSerial: Option[BigInt]): Either[Error, (ChangeSet, Option[BigInt])] = snapshotDef.right.map { sd =>
+      (applySnapshot(new URI(sd.url)) _, lastLocalSerial)
     }
 
     val repositoryChangeSet: Either[Error, (ChangeSet, Option[BigInt])] = notificationDef >>= { notificationDef =>
@@ -145,7 +163,7 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
         // our local serial is already the latest one
         case serial@Some(lastLocalSerial) if lastLocalSerial == notificationDef.serial =>
           logger.info(s"lastLocalSerial = $lastLocalSerial and it's equal to the remote serial")
-          Right((Seq[DeltaUnit](), serial))
+          Right((noChanges, serial))
 
         // something weird is happening, bail out
         case serial@Some(lastLocalSerial) if lastLocalSerial > notificationDef.serial =>
@@ -164,7 +182,7 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
                 returnSnapshot(serial)
               }
               else
-                Right((Seq(), serial))
+                Right((noChanges, serial))
             } else if (requiredDeltas.head.serial > lastLocalSerial + 1) {
               logger.info(s"requiredDeltas.head.serial is ${requiredDeltas.head.serial} and larger then ${lastLocalSerial + 1}, downloading snapshot")
               returnSnapshot(serial)
@@ -175,41 +193,123 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
       }
     }
 
-    repositoryChangeSet.fold(Seq(_), { changeSet =>
-      val (deltaUnits, lastLocalSerial) = changeSet
-      val deltaResults = deltaUnits.map(parseDeltaUnit(_, fetcherListener))
-      val errors = deltaResults.collect { case Left(e) => e }
+    repositoryChangeSet.fold(e => (Seq(e), None), { changeSet =>
+      val (applyChanges, lastLocalSerial) = changeSet
+      val errors = applyChanges(fetcherListener)
       if (errors.isEmpty) {
-        notificationDef.right.foreach { nd =>
+        val reached = notificationDef.right.toOption.filter { nd =>
           logger.info(s"Serial from the notification file is ${nd.serial}, local is $lastLocalSerial")
-          if (!(Some(nd.serial) == lastLocalSerial)) {
-            logger.info(s"Storing local serial number for url=$notificationUrl, session_id=${nd.sessionId}, serial=${nd.serial}")
-            store.storeSerial(notificationUrl, nd.sessionId, nd.serial)
-          }
+          !(Some(nd.serial) == lastLocalSerial)
         }
+        reached.foreach(nd => logger.info(s"Storing local serial number for url=$notificationUrl, session_id=${nd.sessionId}, serial=${nd.serial}"))
+        (errors, reached)
       } else {
         logger.warn("Errors occurred during fetchng RRDP repository")
+        (errors, None)
       }
-      errors
     })
   }
 
+  /**
+   * Downloads all the deltas to temporary files first, so that nothing is applied
+   * unless every one of them is available.
+   */
   private def fetchDeltas(serial: Some[scala.BigInt], requiredDeltas: Seq[DeltaDef]): Either[Error, (ChangeSet,  Option[BigInt])] = {
-    val futures: Seq[Future[Either[Error, ChangeSet]]] = requiredDeltas.map { dDef =>
+    val futures: Seq[Future[Either[Error, File]]] = requiredDeltas.map { dDef =>
       future {
-        getDelta(dDef.url, dDef).map(d => d.units)
+        download(dDef.url)
+      }
+    }
+
+    // the downloads may have to wait for each other, each of them is bounded by the HTTP timeouts
+    val downloads = Await.result(Future.sequence(futures), 30.minutes)
+    val files = downloads.collect { case Right(f) => f }
+    downloads.collectFirst { case Left(e) => e } match {
+      case Some(error) =>
+        files.foreach(_.delete())
+        Left(error)
+      case None =>
+        val applyDeltas: ChangeSet = { fetcherListener =>
+          try {
+            requiredDeltas.zip(files).flatMap { case (dDef, file) =>
+              tryTo(dDef.url)(parseE)(Files.newInputStream(file.toPath)).fold(Seq(_), { in =>
+                try streamUnits(dDef.url, in, fetcherListener) finally in.close()
+              })
+            }
+          } finally {
+            files.foreach(_.delete())
+          }
+        }
+        Right((applyDeltas, serial))
+    }
+  }
+
+  private def download(url: URI): Either[Error, File] =
+    tryTo(url)(connectionE) {
+      logger.info(s"Fetching $url")
+      httpGet(url)
+    } >>= { response =>
+      try {
+        tryTo(url)(parseE) {
+          val file = File.createTempFile("rrdp-", ".xml")
+          try {
+            Files.copy(content(response), file.toPath, StandardCopyOption.REPLACE_EXISTING)
+          } catch {
+            case NonFatal(e) =>
+              file.delete()
+              throw e
+          }
+          file
+        }
+      } finally {
+        response.close()
+      }
+    }
+
+  private def applySnapshot(snapshotUrl: URI)(fetcherListener: FetcherListener): Seq[Error] =
+    tryTo(snapshotUrl)(connectionE) {
+      logger.info(s"Fetching $snapshotUrl")
+      httpGet(snapshotUrl)
+    }.fold(Seq(_), { response =>
+      try {
+        tryTo(snapshotUrl)(parseE)(content(response)).fold(Seq(_), streamUnits(snapshotUrl, _, fetcherListener))
+      } finally {
+        response.close()
       }
+    })
+
+  private def content(response: CloseableHttpResponse): InputStream =
+    response.getStatusLine.getStatusCode match {
+      case HttpStatus.SC_OK =>
+        response.getEntity.getContent
+      case _ =>
+        throw new RuntimeException(response.getStatusLine.getStatusCode + " " + response.getStatusLine.getReasonPhrase)
     }
 
-    // wait for all the futures and bind their fetching results consecutively
-    Await.result(Future.sequence(futures), 5.minutes).
-      foldLeft[Either[Error, ChangeSet]] {
-      Right(Seq[DeltaUnit]())
-    } { (sum: Either[Error, ChangeSet], result: Either[Error, ChangeSet]) =>
-      sum >>= { (deltas: Seq[DeltaUnit]) =>
-        result.map(deltas ++ _)
+  /**
+   * Hands every unit to the listener as soon as it is parsed. A broken document stops
+   * the parsing, the units before the broken part are still applied.
+   *
+   * The objects are parsed in parallel, up to `parseAhead` units ahead of the one being
+   * applied, and applied on the calling thread in document order.
+   */
+  private def streamUnits(uri: URI, in: InputStream, fetcherListener: FetcherListener): Seq[Error] = {
+    val errors = Seq.newBuilder[Error]
+    val pending = mutable.Queue[() => Either[Error, Unit]]()
+
+    def applyNext() = pending.dequeue()().left.foreach(errors += _)
+
+    tryTo(uri)(parseE) {
+      try {
+        RrdpParser.parse(in) { unit =>
+          pending.enqueue(parseDeltaUnit(unit, fetcherListener))
+          if (pending.size > RrdpFetcher.parseAhead) applyNext()
+        }
+      } finally {
+        while (pending.nonEmpty) applyNext()
       }
-    }.right.map((_, serial))
+    }.left.foreach(errors += _)
+    errors.result()
   }
 
   private def parseSnapshotDef(notificationUrl: URI)(xml: Elem): Either[Error, SnapshotDef] =
@@ -248,94 +348,63 @@ class RrdpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Loggin
     }
   }
 
-  private def parseDeltaUnit(d: DeltaUnit, fetcherListener: FetcherListener) =
+  /**
+   * Starts parsing the unit and returns the function applying it to the listener.
+   */
+  private def parseDeltaUnit(d: DeltaUnit, fetcherListener: FetcherListener): () => Either[Error, Unit] =
     d match {
       case p: PublishUnit => parsePublishUnit(p, fetcherListener)
-      case w: WithdrawUnit => parseWithdrawUnit(w, fetcherListener)
+      case w: WithdrawUnit => () => parseWithdrawUnit(w, fetcherListener)
     }
 
-  private def parsePublishUnit(p: PublishUnit, fetcherListener: FetcherListener) =
-    tryTo(p.url)(processingE) {
-      base64.decode(p.base64.filterNot(Character.isWhitespace))
-    } >>= { bytes =>
-      processObject(p.url, bytes, fetcherListener)
+  private def parsePublishUnit(p: PublishUnit, fetcherListener: FetcherListener) = {
+    val parsed = Future(parseObject(p.url, p.bytes))(RrdpFetcher.parsers)
+    () => tryTo(p.url)(processingE)(Await.result(parsed, 5.minutes)).joinRight.right.map { ro =>
+      fetcherListener.processObject(ro)
     }
+  }
 
   private def parseWithdrawUnit(p: WithdrawUnit, fetcherListener: FetcherListener) =
     tryTo(p.url)(processingE) {
       fetcherListener.withdraw(p.url, p.hash)
     }
 
-  def getXmlIfModified(xmlUrl: URI, ifModifiedSince: Option[DateTime]): Either[Error, Option[Elem]] =
-    tryTo(xmlUrl)(connectionE) {
-      logger.info(s"Fetching $xmlUrl")
-      httpGetIfNotModified(xmlUrl.toString, ifModifiedSince)
+  /**
+   * Returns the notification file unless it did not change since the last time it was processed, according to
+   * the server or to the session id and serial in it, and the validators to store once it has been processed.
+   */
+  def getNotificationIfChanged(notificationUrl: URI, validators: Option[HttpValidators]): Either[Error, (Option[Elem], Option[HttpValidators])] =
+    tryTo(notificationUrl)(connectionE) {
+      logger.info(s"Fetching $notificationUrl")
+      httpGetIfChanged(notificationUrl, validators)
     } >>= { response =>
-      tryTo(xmlUrl)(parseE) {
-        response.getStatusLine.getStatusCode match {
-          case HttpStatus.SC_OK =>
-            Some(scala.xml.XML.load(response.getEntity.getContent))
-          case HttpStatus.SC_NOT_MODIFIED =>
-            logger.info(s"Not fetching $xmlUrl because it was not modified since the last fetch at $ifModifiedSince")
-            None
-          case _ =>
-            throw new RuntimeException(response.getStatusLine.getStatusCode + " " + response.getStatusLine.getReasonPhrase)
+      try {
+        tryTo(notificationUrl)(parseE) {
+          response.getStatusLine.getStatusCode match {
+            case HttpStatus.SC_OK =>
+              val bytes = IOUtils.toByteArray(response.getEntity.getContent)
+              val xml = if (serialIsCurrent(notificationUrl, bytes)) {
+                logger.info(s"Not processing $notificationUrl because its session and serial did not change")
+                None
+              } else {
+                Some(scala.xml.XML.load(new ByteArrayInputStream(bytes)))
+              }
+              (xml, Some(Http.validators(response)))
+            case HttpStatus.SC_NOT_MODIFIED =>
+              logger.info(s"Not fetching $notificationUrl because it was not modified since the last fetch")
+              (None, None)
+            case _ =>
+              throw new RuntimeException(response.getStatusLine.getStatusCode + " " + response.getStatusLine.getReasonPhrase)
+          }
         }
+      } finally {
+        // gives the connection back to the pool
+        response.close()
       }
     }
 
-  def getXml(xmlUrl: URI): Either[Error, Elem] =
-    tryTo(xmlUrl)(connectionE) {
-      logger.info(s"Fetching $xmlUrl")
-      httpGet(xmlUrl)
-    } >>= { response =>
-      tryTo(xmlUrl)(parseE) {
-        readAndClose(response)
-      }
+  private def serialIsCurrent(notificationUrl: URI, bytes: Array[Byte]) =
+    Try(RrdpParser.notificationHeader(new ByteArrayInputStream(bytes))).toOption.exists {
+      case (sessionId, serial) => store.getSerial(notificationUrl, sessionId) == Some(serial)
     }
-
-  private def readAndClose(response: CloseableHttpResponse) = {
-    try {
-      response.getStatusLine.getStatusCode match {
-        case HttpStatus.SC_OK =>
-          scala.xml.XML.load(response.getEntity.getContent)
-        case _ =>
-          throw new RuntimeException(response.getStatusLine.getStatusCode + " " + response.getStatusLine.getReasonPhrase)
-      }
-    } finally {
-      response.close()
-    }
-  }
-
-  private def getSnapshot(snapshotUrl: URI, snapshotDef: SnapshotDef): Either[Error, Snapshot] =
-    getXml(snapshotUrl) >>= { xml =>
-      getUnits(snapshotUrl, xml) >>= { pu =>
-        Right(Snapshot(snapshotDef, pu.asInstanceOf[Seq[PublishUnit]]))
-      }
-    }
-
-  private def getDelta(deltaUrl: URI, deltaDef: DeltaDef): Either[Error, Delta] =
-    getXml(deltaUrl) >>= { xml =>
-      getUnits(deltaUrl, xml) >>= { pu =>
-        Right(Delta(deltaDef, pu))
-      }
-    }
-
-  private def getUnits[T](uri: URI, xml: Elem): Either[Error, Seq[DeltaUnit]] = {
-    val publishes = (xml \ "_").map {
-      case node@(<publish>{_}</publish>) => PublishUnit(new URI((node \ "@uri").text), (node \ "@hash").text, node.text)
-      case node@(<withdraw/>) => WithdrawUnit(new URI((node \ "@uri").text), (node \ "@hash").text)
-    }
-
-    val invalidElement = publishes.find {
-      case PublishUnit(url, hash, text) => url.toString.isEmpty && hash.isEmpty && text.isEmpty
-      case WithdrawUnit(url, hash) => url.toString.isEmpty && hash.isEmpty
-    }
-    if (invalidElement.isDefined) {
-      Left(ParseError(uri, s"Mandatory attributes are absent in element: $invalidElement"))
-    }
-    else
-      Right(publishes)
-  }
 }
-
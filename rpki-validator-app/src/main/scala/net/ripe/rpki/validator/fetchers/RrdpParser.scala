@@ -0,0 +1,140 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.{ByteArrayOutputStream, InputStream}
+import java.net.URI
+import javax.xml.stream.XMLStreamConstants._
+import javax.xml.stream.{XMLInputFactory, XMLStreamException, XMLStreamReader}
+
+import com.google.common.io.BaseEncoding
+
+/**
+ * Pull parser for RRDP snapshot and delta files. The publish and withdraw elements are handed
+ * over one by one in document order, and the base64 content of a publish element is decoded
+ * while it is being read, so there is never more than one object in memory, whatever the
+ * size of the file.
+ */
+object RrdpParser {
+
+  sealed trait DeltaUnit {
+    def url: URI
+    def hash: String
+  }
+
+  case class PublishUnit(url: URI, hash: String, bytes: Array[Byte]) extends DeltaUnit
+
+  case class WithdrawUnit(url: URI, hash: String) extends DeltaUnit
+
+  private val base64 = BaseEncoding.base64()
+
+  // base64 is decoded in chunks of this many characters, it has to be a multiple of 4
+  private val chunkSize = 16 * 1024
+
+  private val inputFactory = {
+    val factory = XMLInputFactory.newInstance()
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+    factory
+  }
+
+  /**
+   * Reads the session id and serial number from the root element of a notification file, without reading the rest.
+   */
+  def notificationHeader(in: InputStream): (String, BigInt) = {
+    val reader = inputFactory.createXMLStreamReader(in)
+    try {
+      reader.nextTag()
+      (mandatory(reader, "session_id"), BigInt(mandatory(reader, "serial")))
+    } finally {
+      reader.close()
+    }
+  }
+
+  def parse(in: InputStream)(f: DeltaUnit => Unit): Unit = {
+    val reader = inputFactory.createXMLStreamReader(in)
+    try {
+      while (reader.hasNext) {
+        if (reader.next() == START_ELEMENT) {
+          reader.getLocalName match {
+            case "publish" =>
+              val url = mandatory(reader, "uri")
+              val hash = optional(reader, "hash")
+              f(PublishUnit(new URI(url), hash, decodeContent(reader)))
+            case "withdraw" =>
+              f(WithdrawUnit(new URI(mandatory(reader, "uri")), optional(reader, "hash")))
+            case _ =>
+          }
+        }
+      }
+    } finally {
+      reader.close()
+    }
+  }
+
+  private def mandatory(reader: XMLStreamReader, attribute: String) =
+    Option(reader.getAttributeValue(null, attribute)).filter(_.nonEmpty).getOrElse {
+      throw new XMLStreamException(s"Mandatory attribute '$attribute' is absent in element ${reader.getLocalName}", reader.getLocation)
+    }
+
+  private def optional(reader: XMLStreamReader, attribute: String) =
+    Option(reader.getAttributeValue(null, attribute)).getOrElse("")
+
+  private def decodeContent(reader: XMLStreamReader): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream
+    val pending = new java.lang.StringBuilder(chunkSize)
+
+    def decode(length: Int) = if (length > 0) {
+      bytes.write(base64.decode(pending.subSequence(0, length)))
+      pending.delete(0, length)
+    }
+
+    var event = reader.next()
+    while (event != END_ELEMENT) {
+      event match {
+        case CHARACTERS | CDATA | SPACE =>
+          val text = reader.getTextCharacters
+          val end = reader.getTextStart + reader.getTextLength
+          var i = reader.getTextStart
+          while (i < end) {
+            if (!Character.isWhitespace(text(i))) pending.append(text(i))
+            i += 1
+          }
+          if (pending.length >= chunkSize) decode(pending.length - pending.length % 4)
+        case START_ELEMENT =>
+          throw new XMLStreamException(s"Unexpected element ${reader.getLocalName} in publish element", reader.getLocation)
+        case _ =>
+      }
+      event = reader.next()
+    }
+    decode(pending.length)
+    bytes.toByteArray
+  }
+}
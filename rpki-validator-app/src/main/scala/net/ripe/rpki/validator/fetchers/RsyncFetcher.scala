@@ -32,18 +32,10 @@ package net.ripe.rpki.validator.fetchers
 import java.io.File
 import java.net.URI
 
-import org.slf4j.{Logger, LoggerFactory}
-
-class RsyncFetcher(config: FetcherConfig) extends Fetcher with RsyncSupport {
+class RsyncFetcher(config: FetcherConfig) extends Fetcher with RsyncSupport with DirectoryReader {
 
   import net.ripe.rpki.validator.fetchers.Fetcher._
 
-  private def walkTree[T1, T2](d: File)(f: File => Either[T1, T2]): Seq[T1] = {
-    if (d.isDirectory) {
-      d.listFiles.map(walkTree(_)(f)).toSeq.flatten
-    } else f(d).fold(Seq(_), { _ => Seq() })
-  }
-
   private[this] def withRsyncDir[T](url: URI)(f: File => T) = {
     val urlToPath = url.toString.replaceAll("rsync://", "")
     def destDir = {
@@ -63,25 +55,5 @@ class RsyncFetcher(config: FetcherConfig) extends Fetcher with RsyncSupport {
       rsync(config.mapUri(url), destDir).toSeq ++ readObjects(destDir, url, fetcherListener)
     }
 
-  def readObjects(tmpRoot: File, repoUrl: URI, fetcherListener: FetcherListener): Seq[Error] = {
-    val replacement = {
-      val s = repoUrl.toString
-      if (s.endsWith("/")) s.dropRight(1) else s
-    }
-
-    def rsyncUrl(f: File) =
-      new URI(if (replacement.endsWith(f.getName))
-        replacement
-      else
-        f.getAbsolutePath.replaceAll(tmpRoot.getAbsolutePath, replacement))
-
-    walkTree(tmpRoot) { file =>
-      readFile(file).right.map { bytes =>
-        processObject(rsyncUrl(file), bytes, fetcherListener)
-      }
-    }
-  }
-
   override def options: Seq[String] = Seq("--update", "--times", "--copy-links", "--recursive", "--delete")
 }
-
@@ -0,0 +1,187 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.{File, IOException}
+import java.net.URI
+import java.nio.charset.Charset
+import java.nio.file.Files
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong}
+import java.util.concurrent.{Executors, Semaphore, TimeUnit}
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import grizzled.slf4j.Logging
+import net.ripe.rpki.validator.config.ApplicationOptions
+import net.ripe.rpki.validator.rsync.RsyncClient
+
+import scala.collection.JavaConversions._
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration.FiniteDuration
+
+object RsyncScheduler {
+
+  case class Metrics(running: Int, queued: Int, completed: Long, killed: Long, totalWaitMillis: Long) {
+    def averageWaitMillis = if (completed == 0) 0 else totalWaitMillis / completed
+  }
+
+  // rsync gives up by itself when no data arrives for this long, the deadline covers the rest
+  val IoTimeoutInSeconds = 300
+
+  lazy val shared = new RsyncScheduler(
+    ApplicationOptions.rsyncMaxProcesses,
+    ApplicationOptions.rsyncMaxProcessesPerHost,
+    ApplicationOptions.rsyncDeadline,
+    ApplicationOptions.rsyncInProcess)
+
+  private val killer = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setNameFormat("rsync-deadline-%d").setDaemon(true).build())
+}
+
+/**
+ * Runs the rsync processes of all the fetchers. At most maxProcesses run at the same time, and at
+ * most maxProcessesPerHost against the same host, the others wait in the calling thread for their turn.
+ * A process that is still running after the deadline is killed, so that a hanging publication
+ * server cannot hold up validation for longer than that.
+ *
+ * With inProcess the transfers are done by the built-in rsync client in the calling thread instead,
+ * under the same limits, and a transfer still running after the deadline is aborted.
+ */
+class RsyncScheduler(maxProcesses: Int, maxProcessesPerHost: Int, deadline: FiniteDuration, inProcess: Boolean = false) extends Logging {
+
+  import RsyncScheduler._
+
+  private val processes = new Semaphore(maxProcesses, true)
+  private val hosts = TrieMap[String, Semaphore]()
+
+  private val running = new AtomicInteger
+  private val queued = new AtomicInteger
+  private val completed = new AtomicLong
+  private val killed = new AtomicLong
+  private val totalWaitMillis = new AtomicLong
+
+  def metrics = Metrics(running.get, queued.get, completed.get, killed.get, totalWaitMillis.get)
+
+  protected def commandLine(url: URI, options: Seq[String], destination: File): Seq[String] =
+    Seq("rsync", s"--timeout=$IoTimeoutInSeconds") ++ options ++ Seq(url.toString, destination.getAbsolutePath)
+
+  /**
+   * Runs rsync from the url to the destination, returns the reason when it did not succeed.
+   */
+  def rsync(url: URI, options: Seq[String], destination: File): Either[String, Unit] = {
+    val host = hosts.getOrElseUpdate(Option(url.getHost).getOrElse(""), new Semaphore(maxProcessesPerHost, true))
+
+    val queuedAt = System.currentTimeMillis
+    queued.incrementAndGet()
+    try {
+      host.acquire()
+      try processes.acquire() catch {
+        case e: InterruptedException =>
+          host.release()
+          throw e
+      }
+    } finally queued.decrementAndGet()
+
+    try {
+      val waited = System.currentTimeMillis - queuedAt
+      totalWaitMillis.addAndGet(waited)
+      if (waited > 1000) logger.info(s"Waited $waited ms before running rsync for $url")
+
+      running.incrementAndGet()
+      try {
+        if (inProcess) transfer(url, client(options), destination)
+        else execute(url, commandLine(url, options, destination))
+      }
+      finally {
+        running.decrementAndGet()
+        completed.incrementAndGet()
+      }
+    } finally {
+      processes.release()
+      host.release()
+    }
+  }
+
+  protected def client(options: Seq[String]): RsyncClient = new RsyncClient(options, IoTimeoutInSeconds)
+
+  private def transfer(url: URI, client: RsyncClient, destination: File): Either[String, Unit] = {
+    val timedOut = new AtomicBoolean
+    val abort = killer.schedule(new Runnable {
+      override def run() = {
+        timedOut.set(true)
+        client.abort()
+      }
+    }, deadline.toMillis, TimeUnit.MILLISECONDS)
+
+    try {
+      val statistics = client.sync(url, destination)
+      logger.debug(s"Fetched $url: $statistics")
+      Right(())
+    } catch {
+      case e: IOException if timedOut.get =>
+        killed.incrementAndGet()
+        logger.warn(s"Aborted the rsync transfer of $url after the deadline of $deadline")
+        Left(s"Aborted after the deadline of $deadline")
+      case e: IOException =>
+        Left(s"Transfer failed: ${e.getMessage}")
+    } finally abort.cancel(false)
+  }
+
+  private def execute(url: URI, command: Seq[String]): Either[String, Unit] = {
+    val output = File.createTempFile("rsync", ".out")
+    try {
+      val process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output).start()
+      val timedOut = new AtomicBoolean
+      val kill = killer.schedule(new Runnable {
+        override def run() = {
+          timedOut.set(true)
+          process.destroy()
+        }
+      }, deadline.toMillis, TimeUnit.MILLISECONDS)
+
+      val code = try process.waitFor() catch {
+        case e: InterruptedException =>
+          process.destroy()
+          throw e
+      } finally kill.cancel(false)
+
+      if (timedOut.get) {
+        killed.incrementAndGet()
+        logger.warn(s"Killed rsync for $url after the deadline of $deadline")
+        Left(s"Killed after the deadline of $deadline")
+      } else if (code != 0) {
+        Left(s"""Returned code: $code, stderr: ${Files.readAllLines(output.toPath, Charset.defaultCharset).mkString("\n")}""")
+      } else {
+        Right(())
+      }
+    } finally {
+      output.delete()
+    }
+  }
+}
@@ -31,35 +31,24 @@ package net.ripe.rpki.validator.fetchers
 
 import java.io.File
 import java.net.URI
-import java.nio.file.Files
 
-import net.ripe.rpki.commons.rsync.Rsync
 import net.ripe.rpki.validator.fetchers.Fetcher.{ConnectionError, Error}
 
-import scala.collection.JavaConversions._
-
 trait RsyncSupport {
 
   this: Fetcher =>
 
   def options: Seq[String]
 
+  protected def scheduler: RsyncScheduler = RsyncScheduler.shared
+
   def rsync(url: URI, destDir: File): Option[Error] = {
-    val r = new Rsync(url.toString, destDir.getAbsolutePath)
-    r.addOptions(options)
     try {
-      r.execute match {
-        case 0 => None
-        case code => Some(ConnectionError(url, s"""Returned code: $code, stderr: ${r.getErrorLines.mkString("\n")}"""))
-      }
+      scheduler.rsync(url, options, destDir).left.toOption.map(ConnectionError(url, _))
     } catch {
       case e: Exception => Some(ConnectionError(url, s"""Failed with exception, ${e.getMessage}"""))
     }
   }
 
-  def readFile(f: File): Either[Error, Array[Byte]] = tryTo(new URI(f.getAbsolutePath))(processingE) {
-    Files.readAllBytes(f.toPath)
-  }
-
 
 }
@@ -39,15 +39,30 @@ import org.apache.commons.io.IOUtils
 import org.apache.http.HttpStatus
 import org.apache.http.client.methods.CloseableHttpResponse
 
+/**
+ * Fetches the object conditionally, with the validators of the last time it was fetched, as long as
+ * the listener still knows that object. When it did not change, the listener gets nothing at all.
+ * The validators are kept in the store, so that they survive restarts as long as the object cache does.
+ */
 class SingleObjectHttpFetcher(store: HttpFetcherStore) extends Fetcher with Http with Logging {
   override def trustedCertsLocation: File = ApplicationOptions.trustedSslCertsLocation
 
   def fetch(uri: URI, process: FetcherListener): Seq[Fetcher.Error] = {
+    val validators = store.getObjectValidators(uri).collect {
+      case (v, hash) if process.isKnown(uri, hash) => v
+    }
     tryTo(uri)(connectionE) {
-      readAndClose(httpGet(uri))
+      readAndClose(httpGetIfChanged(uri, validators))
     }.right
-      .map { bytes =>
-        processObject(uri, bytes, process)
+      .flatMap {
+        case None =>
+          logger.info(s"$uri did not change")
+          Right(())
+        case Some((bytes, newValidators)) =>
+          val hash = stringify(getHash(bytes))
+          val processed = if (process.isKnown(uri, hash)) Right(()) else processObject(uri, bytes, process)
+          processed.right.foreach(_ => store.storeObjectValidators(uri, newValidators, hash))
+          processed
       }
       .left
       .toSeq
@@ -57,7 +72,9 @@ class SingleObjectHttpFetcher(store: HttpFetcherStore) extends Fetcher with Http
     try {
       response.getStatusLine.getStatusCode match {
         case HttpStatus.SC_OK =>
-          IOUtils.toByteArray(response.getEntity.getContent)
+          Some((IOUtils.toByteArray(response.getEntity.getContent), Http.validators(response)))
+        case HttpStatus.SC_NOT_MODIFIED =>
+          None
         case _ =>
           throw new RuntimeException(response.getStatusLine.getStatusCode + " " + response.getStatusLine.getReasonPhrase)
       }
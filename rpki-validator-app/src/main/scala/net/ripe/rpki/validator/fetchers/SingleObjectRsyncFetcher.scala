@@ -34,6 +34,10 @@ import java.net.URI
 
 import grizzled.slf4j.Logging
 
+/**
+ * Fetches a single object, such as a trust anchor certificate. The listener only gets it when it
+ * doesn't know it yet.
+ */
 class SingleObjectRsyncFetcher(config: FetcherConfig) extends Fetcher with RsyncSupport with Logging {
 
   def fetch(uri: URI, fetcherListener: FetcherListener): Seq[Fetcher.Error] = {
@@ -55,12 +59,13 @@ class SingleObjectRsyncFetcher(config: FetcherConfig) extends Fetcher with Rsync
     val error = for {
       error <- rsync(config.mapUri(uri), destDir).toLeft(()).right
       bytes <- readFile(new File(config.rsyncDir + "/" + fullPath)).right
-      processResult <- processObject(uri, bytes, fetcherListener).right
+      processResult <- (if (fetcherListener.isKnown(uri, stringify(getHash(bytes)))) Right(()) else processObject(uri, bytes, fetcherListener)).right
     } yield processResult
 
     error.left.toSeq
   }
 
 
-  override def options: Seq[String] = Seq("--update", "--times", "--copy-links")
+  // compares checksums rather than size and time, the object is only transferred when its content changed
+  override def options: Seq[String] = Seq("--update", "--times", "--copy-links", "--checksum")
 }
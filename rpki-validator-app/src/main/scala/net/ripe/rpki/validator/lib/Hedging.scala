@@ -0,0 +1,83 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.lib
+
+import java.util.concurrent.{Executors, LinkedBlockingQueue, TimeUnit}
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+
+import scala.concurrent.duration.Duration
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success, Try}
+
+object Hedging {
+
+  // the attempts block on the network, so there are as many threads as there are attempts running
+  private implicit val attempts = ExecutionContext.fromExecutorService(Executors.newCachedThreadPool(
+    new ThreadFactoryBuilder().setNameFormat("hedged-fetch-%d").setDaemon(true).build()))
+
+  /**
+   * Tries the alternatives in order, but doesn't wait for longer than the delay before starting
+   * the next one, and starts it right away when the previous one was unsuccessful. Returns the first
+   * successful result, if any, and the unsuccessful results that came in before it. The attempts
+   * that are still running after that are left to finish in the background.
+   */
+  def firstSuccessful[T](alternatives: Seq[() => T], delay: Duration)(successful: T => Boolean): (Option[T], Seq[T]) = {
+    val results = new LinkedBlockingQueue[Try[T]]()
+    var started = 0
+    var unsuccessful = Vector[T]()
+
+    def startNext() = {
+      val alternative = alternatives(started)
+      started += 1
+      Future(alternative()).onComplete(results.put)
+    }
+
+    var result: Option[T] = None
+    if (alternatives.nonEmpty) startNext()
+    while (result.isEmpty && unsuccessful.size < started) {
+      val next =
+        if (started < alternatives.size && delay.isFinite) results.poll(delay.toMillis, TimeUnit.MILLISECONDS)
+        else results.take()
+      next match {
+        case null =>
+          startNext()
+        case Success(r) if successful(r) =>
+          result = Some(r)
+        case Success(r) =>
+          unsuccessful :+= r
+          if (started < alternatives.size && unsuccessful.size == started) startNext()
+        case Failure(e) =>
+          throw e
+      }
+    }
+    (result, unsuccessful)
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.models
+
+import java.net.URI
+
+import grizzled.slf4j.Logging
+import net.ripe.rpki.validator.fetchers.Fetcher
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Promise}
+import scala.util.control.NonFatal
+
+/**
+ * Makes sure that a repository is fetched only once at a time, however many trust anchors
+ * are validated concurrently. Whoever asks for a repository that is being fetched already
+ * waits for that fetch and gets its result, instead of fetching it again.
+ */
+class FetchCoordinator extends Logging {
+
+  private val inFlight = TrieMap[URI, Promise[Seq[Fetcher.Error]]]()
+
+  def coordinated(uri: URI)(fetch: => Seq[Fetcher.Error]): Seq[Fetcher.Error] = {
+    val promise = Promise[Seq[Fetcher.Error]]()
+    inFlight.putIfAbsent(uri, promise) match {
+      case Some(pending) =>
+        logger.debug(s"Joining the fetch of $uri that is in progress")
+        Await.result(pending.future, Duration.Inf)
+      case None =>
+        try {
+          val errors = fetch
+          promise.success(errors)
+          errors
+        } catch {
+          case NonFatal(e) =>
+            promise.failure(e)
+            throw e
+        } finally {
+          inFlight.remove(uri, promise)
+        }
+    }
+  }
+
+  def inProgress: Set[URI] = inFlight.keySet.toSet
+}
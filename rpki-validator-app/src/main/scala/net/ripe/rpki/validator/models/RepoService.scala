@@ -36,52 +36,94 @@ import net.ripe.rpki.validator.fetchers.Fetcher
 import net.ripe.rpki.validator.fetchers.Fetcher.ConnectionError
 import net.ripe.rpki.validator.lib.Locker
 import net.ripe.rpki.validator.models.validation.{CertificateObject, RepoFetcher}
-import net.ripe.rpki.validator.store.RepoServiceStore
+import net.ripe.rpki.validator.store.{FetchIntervals, RepoFailures, RepoServiceStore}
 import org.joda.time.{Duration, Instant}
 
 import scala.Seq
 import scala.collection._
 
 object RepoServiceErrors {
-  val lastErrors: mutable.Map[URI, Seq[Fetcher.Error]] = mutable.Map.empty
+  val lastErrors: concurrent.Map[URI, Seq[Fetcher.Error]] = concurrent.TrieMap.empty
 }
 
-class RepoService(fetcher: RepoFetcher) {
+/**
+ * With `cacheOnly` nothing is fetched, validation only sees what is already in the local cache.
+ */
+class RepoService(fetcher: RepoFetcher, val cacheOnly: Boolean = false) {
 
-  private def interval(uri: URI) =
-    if (uri.getScheme == "rsync")
+  private def interval(uri: URI, lastFetchTime: Instant) =
+    if (ApplicationOptions.adaptiveFetchIntervals)
+      FetchIntervals.interval(uri, lastFetchTime)
+    else if (uri.getScheme == "rsync")
       ApplicationOptions.rsyncFetcherInterval
     else
       ApplicationOptions.rddpFetcherInterval
 
   private val locker = RepoService.locker
+  private val coordinator = RepoService.coordinator
 
+  /**
+   * rsync repositories are fetched a whole module at a time. The fetch time is recorded for the module,
+   * which makes all the publication points in it fresh, so that the CAs sharing a module cause one
+   * rsync instead of one each. Whether the module is due is decided with the interval learned for the
+   * publication point, so that a busy CA in a big module doesn't make every CA in it be fetched at the
+   * interval of the busiest one.
+   */
   def visitRepo(forceNewFetch: Boolean, validationStart: Instant)(uri: URI): Seq[Fetcher.Error] =
-    fetchAndUpdateTime(uri, forceNewFetch, validationStart) {
-      fetcher.fetchRepo(uri)
+    if (cacheOnly) Seq.empty
+    else {
+      val root = fetchRoot(uri)
+      fetchAndUpdateTime(root, uri, forceNewFetch, validationStart) {
+        fetcher.fetchRepo(root)
+      }
     }
 
+  /**
+   * Lets the repository be fetched in time for the update of a manifest or CRL published in it.
+   */
+  def expectUpdate(uri: URI, nextUpdate: Instant): Unit =
+    if (!cacheOnly) FetchIntervals.expectUpdate(uri, nextUpdate)
+
+  private def fetchRoot(uri: URI) =
+    if (uri.getScheme == "rsync" && ApplicationOptions.rsyncFetchWholeModules) RepoService.rsyncModule(uri)
+    else uri
+
   def lastFetchTime(uri: URI): Instant = RepoServiceStore.getLastFetchTime(uri)
 
-  protected[models] def fetchAndUpdateTime(uri: URI, forceNewFetch: Boolean, validationStart: Instant)(fetch: => Seq[Fetcher.Error]): Seq[Fetcher.Error] =
-    locker.locked(uri) {
-      if (!haveRecentDataInStore(uri, validationStart, forceNewFetch)) {
-        val errors = fetch
-        RepoServiceErrors.lastErrors(uri) = errors
-        if (!Option(errors).exists(_.exists(_.isInstanceOf[ConnectionError])))
-          RepoServiceStore.updateLastFetchTime(uri, validationStart)
+  protected[models] def fetchAndUpdateTime(uri: URI, publicationPoint: URI, forceNewFetch: Boolean, validationStart: Instant)(fetch: => Seq[Fetcher.Error]): Seq[Fetcher.Error] =
+    coordinator.coordinated(uri) {
+      if (!haveRecentDataInStore(uri, publicationPoint, validationStart, forceNewFetch)) {
+        RepoFailures.openCircuit(uri, validationStart).filterNot(_ => forceNewFetch) match {
+          case Some(failure) =>
+            RepoServiceErrors.lastErrors(uri) = Seq(ConnectionError(uri, failure.describe))
+          case None =>
+            val errors = fetch
+            RepoServiceErrors.lastErrors(uri) = errors
+            Option(errors).getOrElse(Seq()).collectFirst { case e: ConnectionError => e } match {
+              case Some(e) =>
+                RepoFailures.failed(uri, e.message, validationStart)
+              case None =>
+                RepoServiceStore.updateLastFetchTime(uri, validationStart)
+                RepoFailures.succeeded(uri)
+            }
+        }
       }
       RepoServiceErrors.lastErrors.getOrElse(uri, Seq.empty)
     }
 
   def visitTrustAnchorCertificate(uri: URI): Either[Seq[Fetcher.Error], CertificateObject] = {
     locker.locked(uri) {
-      fetcher.fetchTrustAnchorCertificate(uri)
+      if (cacheOnly)
+        fetcher.cachedTrustAnchorCertificate(uri)
+      else
+        fetcher.fetchTrustAnchorCertificate(uri)
     }
   }
 
-  private def haveRecentDataInStore(uri: URI, validationTime: Instant, forceNewFetch: Boolean) =
-    timeIsRecent(RepoServiceStore.getLastFetchTime(uri), interval(uri), validationTime, forceNewFetch)
+  private def haveRecentDataInStore(uri: URI, publicationPoint: URI, validationTime: Instant, forceNewFetch: Boolean) = {
+    val lastFetchTime = RepoServiceStore.getLastFetchTime(uri)
+    timeIsRecent(lastFetchTime, interval(publicationPoint, lastFetchTime), validationTime, forceNewFetch)
+  }
 
   private[models] def timeIsRecent(lastFetchTime: Instant, minimalDuration: Duration, validationTime: Instant, forceNewFetch: Boolean) = {
     if (forceNewFetch)
@@ -93,4 +135,14 @@ class RepoService(fetcher: RepoFetcher) {
 
 object RepoService {
   val locker = new Locker
+  val coordinator = new FetchCoordinator
+
+  /**
+   * The module an rsync URI is in, e.g. rsync://host/module/ for rsync://host/module/a/b/.
+   */
+  def rsyncModule(uri: URI): URI =
+    Option(uri.getPath).getOrElse("").split("/").find(_.nonEmpty) match {
+      case Some(module) => new URI(uri.getScheme, uri.getAuthority, "/" + module + "/", null, null)
+      case None => uri
+    }
 }
@@ -43,6 +43,9 @@ import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate
 import net.ripe.rpki.commons.validation.ValidationString._
 import net.ripe.rpki.commons.validation._
 import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext
+import net.ripe.rpki.validator.config.ApplicationOptions
+import net.ripe.rpki.validator.fetchers.Fetcher
+import net.ripe.rpki.validator.lib.Hedging
 import net.ripe.rpki.validator.lib.Structures._
 import net.ripe.rpki.validator.models.validation.RepositoryObject.ROType
 import net.ripe.rpki.validator.models.validation._
@@ -102,7 +105,7 @@ class TopDownWalker(certificateContext: CertificateRepositoryObjectValidationCon
   private def validateContext(forceNewFetch: Boolean): Seq[ValidatedObject] = {
     logger.debug(s"Validating ${certificateContext.getLocation}")
 
-    val fetchErrors = preferredFetchLocation.map(prefetch(forceNewFetch, validationStartTime)).getOrElse(Seq())
+    val fetchErrors = prefetch(forceNewFetch, validationStartTime)
 
     val mftList = fetchMftsByAKI
     logger.debug(s"Found manifests by AKI ${certificateContext.getSubjectKeyIdentifier}: ${mftList.mkString("; ")}")
@@ -127,6 +130,9 @@ class TopDownWalker(certificateContext: CertificateRepositoryObjectValidationCon
 
     val ClassifiedObjects(roas, childrenCertificates, crls, gbrs) = classify(mftObjects)
 
+    val nextUpdate = Seq(manifest.decoded.getNextUpdateTime, crl.decoded.getNextUpdateTime).minBy(_.getMillis)
+    preferredFetchLocation.foreach(repoService.expectUpdate(_, nextUpdate.toInstant))
+
     val checks = checkManifestUrlOnCertMatchesLocationInRepo(manifest).toList ++
       mftChecks ++
       check(roas, crl) ++
@@ -219,8 +225,30 @@ class TopDownWalker(certificateContext: CertificateRepositoryObjectValidationCon
     }
   }
 
-  private def prefetch(forceNewFetch: Boolean, validationStart: Instant)(uri: URI) = {
-    repoService.visitRepo(forceNewFetch, validationStart)(uri).map { error =>
+  private[models] def alternativeFetchLocation: Option[URI] =
+    Option(if (preferRrdp) certificateContext.getRepositoryURI else certificateContext.getRpkiNotifyURI).filterNot(uri => preferredFetchLocation == Some(uri))
+
+  /**
+   * Fetches the preferred location. When the CA publishes over both rsync and RRDP and hedged fetches are on,
+   * the other one is fetched as well if the preferred one takes longer than the delay, or fails to connect.
+   * Whichever succeeds first is used.
+   */
+  private def prefetch(forceNewFetch: Boolean, validationStart: Instant): Seq[ValidatedObject] = {
+    def visit(uri: URI)() = repoService.visitRepo(forceNewFetch, validationStart)(uri)
+
+    val errors = (preferredFetchLocation, alternativeFetchLocation) match {
+      case (Some(preferred), Some(alternative)) if ApplicationOptions.hedgedFetches =>
+        val (succeeded, failed) = Hedging.firstSuccessful(Seq(visit(preferred) _, visit(alternative) _), ApplicationOptions.hedgeRepositoryDelay) {
+          _.forall(!_.isInstanceOf[Fetcher.ConnectionError])
+        }
+        succeeded.getOrElse(failed.flatten)
+      case (Some(preferred), _) =>
+        visit(preferred)()
+      case _ =>
+        Seq()
+    }
+
+    errors.map { error =>
       ValidatedObject.invalid(None, certificateContext.getSubjectChain, error.url, None, Set(new ValidationCheck(ValidationStatus.FETCH_ERROR, VALIDATOR_REPO_EXECUTION, error.message)))
     }
   }
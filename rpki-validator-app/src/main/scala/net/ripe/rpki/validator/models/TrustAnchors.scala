@@ -33,6 +33,7 @@ import java.io.File
 import java.net.URI
 
 import grizzled.slf4j.Logging
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject
 import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms
 import net.ripe.rpki.commons.crypto.crl.X509Crl
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate
@@ -87,7 +88,7 @@ case class TrustAnchor(
     result match {
       case Success(validatedObjects) =>
         val validatedObjectsByUri: Map[URI, ValidatedObject] = validatedObjects.map(vo => vo.uri -> vo)(collection.breakOut)
-        val nextUpdate = now.plus(ApplicationOptions.validationInterval.toMillis)
+        val nextUpdate = TrustAnchors.nextValidation(now, validatedObjects)
         val trustAnchor = validatedObjectsByUri.get(locator.getFetchedCertificateUri).collect {
           case ValidObject(_, _, _, _, certificate: X509ResourceCertificate) => certificate
         }
@@ -133,6 +134,28 @@ class TrustAnchors(anchors: Seq[TrustAnchor]) {
 }
 
 object TrustAnchors extends Logging {
+
+  /**
+   * The next validation is due as soon as the outcome can change without anything being published: when
+   * the first object in the tree expires or is due to be updated. It is never sooner than the minimum
+   * validation interval, and never later than the validation interval. Repositories are not taken into
+   * account: in a large tree one of them is nearly always due to be fetched, which would keep validating
+   * the whole tree at the minimum interval. What they publish is picked up at the next validation.
+   */
+  def nextValidation(now: DateTime, validatedObjects: Seq[ValidatedObject]): DateTime = {
+    val expiries = validatedObjects.flatMap {
+      case ValidObject(_, _, _, _, manifest: ManifestCms) => Seq(manifest.getNextUpdateTime, manifest.getNotValidAfter)
+      case ValidObject(_, _, _, _, signedObject: RpkiSignedObject) => Seq(signedObject.getNotValidAfter)
+      case ValidObject(_, _, _, _, crl: X509Crl) => Seq(crl.getNextUpdateTime)
+      case ValidObject(_, _, _, _, certificate: X509ResourceCertificate) => Seq(certificate.getValidityPeriod.getNotValidAfter)
+      case _ => Seq()
+    }
+    val earliest = now.plus(ApplicationOptions.validationIntervalMin.toMillis)
+    val latest = now.plus(ApplicationOptions.validationInterval.toMillis)
+    val changes = expiries.filter(t => t != null && t.isAfter(now))
+    if (changes.isEmpty) latest
+    else changes.min max earliest min latest
+  }
   def load(files: Seq[File]): TrustAnchors = {
     val now = new DateTime
     info("Loading trust anchors...")
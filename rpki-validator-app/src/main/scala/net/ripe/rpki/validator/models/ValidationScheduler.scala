@@ -0,0 +1,77 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.models
+
+import java.util.concurrent.{Executors, ScheduledExecutorService, ScheduledFuture, TimeUnit}
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import grizzled.slf4j.Logging
+import org.joda.time.DateTime
+
+/**
+ * Starts the validation of every trust anchor when it is due, rather than checking every so often whether
+ * one is. There is a single timer, for the earliest time a trust anchor is due, which is set again every time
+ * `reschedule` is called: when a validation finishes, and when trust anchors are enabled or added.
+ *
+ * @param due the trust anchors that are waiting to be validated, with the time they are due
+ * @param validate starts the validation of the trust anchors with the given names
+ */
+class ValidationScheduler(due: () => Seq[(String, DateTime)], validate: Seq[String] => Unit,
+                          timer: ScheduledExecutorService = ValidationScheduler.timer) extends Logging {
+
+  private var next: Option[(DateTime, ScheduledFuture[_])] = None
+
+  def reschedule(): Unit = synchronized {
+    val now = new DateTime
+    val (ready, waiting) = due().partition(!_._2.isAfter(now))
+    if (ready.nonEmpty) validate(ready.map(_._1))
+
+    val earliest = waiting.map(_._2).sortBy(_.getMillis).headOption
+    if (earliest != next.map(_._1)) {
+      next.foreach(_._2.cancel(false))
+      next = earliest.map { time =>
+        logger.debug(s"Next validation at $time")
+        time -> timer.schedule(new Runnable {
+          override def run() = {
+            ValidationScheduler.this.synchronized(next = None)
+            reschedule()
+          }
+        }, time.getMillis - now.getMillis, TimeUnit.MILLISECONDS)
+      }
+    }
+  }
+
+  def nextValidation: Option[DateTime] = synchronized(next.map(_._1))
+}
+
+object ValidationScheduler {
+  private val timer = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setNameFormat("validation-scheduler-%d").setDaemon(true).build())
+}
@@ -31,6 +31,7 @@ package net.ripe.rpki.validator.models.validation
 
 import java.io.File
 import java.net.URI
+import java.util.concurrent.atomic.AtomicInteger
 
 import net.ripe.rpki.commons.crypto.cms.ghostbuster.{GhostbustersCms, GhostbustersCmsParser}
 import net.ripe.rpki.commons.crypto.cms.manifest.{ManifestCms, ManifestCmsParser}
@@ -38,12 +39,13 @@ import net.ripe.rpki.commons.crypto.cms.roa.RoaCms
 import net.ripe.rpki.commons.crypto.crl.X509Crl
 import net.ripe.rpki.commons.crypto.x509cert.{X509ResourceCertificate, X509ResourceCertificateParser}
 import net.ripe.rpki.commons.validation.ValidationResult
-import net.ripe.rpki.validator.fetchers.Fetcher.ProcessingError
+import net.ripe.rpki.validator.fetchers.Fetcher.{ConnectionError, ProcessingError}
 import net.ripe.rpki.validator.fetchers._
 import net.ripe.rpki.validator.store._
 import org.joda.time.Instant
 
 import scala.collection.JavaConversions._
+import scala.collection.concurrent.TrieMap
 import scala.language.existentials
 import scala.util.Try
 
@@ -214,13 +216,32 @@ case class RoaObject(override val url: String,
 
 class Fetchers(httpStore: HttpFetcherStore, config: FetcherConfig) {
 
-  def singleObjectFetcher(objectUri: URI): Fetcher = {
+  // with a local mirror rsync repositories are read from it, without forking rsync
+  private def rsyncFetcher(singleObject: Boolean): Fetcher = config.mirrorDir match {
+    case Some(mirrorDir) => new LocalMirrorFetcher(config, mirrorDir)
+    case None if singleObject => new SingleObjectRsyncFetcher(config)
+    case None => new RsyncFetcher(config)
+  }
+
+  // a recording is written to, or replayed from, by all the fetchers together
+  private lazy val archive = config.recordDir.map(new FetchArchive(_))
+  private lazy val replay = config.replayDir.map(d => FetchReplay(new FetchArchive(d)))
+
+  // a recording starts with RRDP snapshots and complete downloads, not with what was fetched before it
+  private lazy val recordableStore = if (config.recordDir.isDefined) new InMemoryHttpFetcherStore else httpStore
+
+  private def recordedOrReplayed(singleObject: Boolean)(fetcher: => Fetcher): Fetcher = replay match {
+    case Some(r) => new ReplayFetcher(r, singleObject, config.replayLatencyFactor)
+    case None => archive.fold(fetcher)(new RecordingFetcher(fetcher, _))
+  }
+
+  def singleObjectFetcher(objectUri: URI): Fetcher = recordedOrReplayed(singleObject = true) {
     if (isLocalFS(objectUri)) {
       new SingleObjectRsyncFetcher(config)
     } else {
       objectUri.getScheme match {
-        case "rsync" => new SingleObjectRsyncFetcher(config)
-        case "http" | "https" => new SingleObjectHttpFetcher(httpStore)
+        case "rsync" => rsyncFetcher(singleObject = true)
+        case "http" | "https" => new SingleObjectHttpFetcher(recordableStore)
         case _ => throw new Exception(s"No fetcher for the object $objectUri")
       }
     }
@@ -230,13 +251,13 @@ class Fetchers(httpStore: HttpFetcherStore, config: FetcherConfig) {
     u.getHost == null && u.getScheme == null && u.toString == u.getPath
   }
 
-  def fetcher(repoUri: URI): Fetcher = {
+  def fetcher(repoUri: URI): Fetcher = recordedOrReplayed(singleObject = false) {
     if (isLocalFS(repoUri)) {
       new RsyncFetcher(config)
     } else {
       repoUri.getScheme match {
-        case "rsync" => new RsyncFetcher(config)
-        case "http" | "https" => new RrdpFetcher(httpStore)
+        case "rsync" => rsyncFetcher(singleObject = false)
+        case "http" | "https" => new RrdpFetcher(recordableStore)
         case _ => throw new Exception(s"No fetcher for the uri $repoUri")
       }
     }
@@ -245,21 +266,6 @@ class Fetchers(httpStore: HttpFetcherStore, config: FetcherConfig) {
 
 class RepoFetcher(storage: Storage, fetchers: Fetchers) {
 
-  val rsyncUrlPool = scala.collection.mutable.Set[String]()
-  val httpUrlPool = scala.collection.mutable.Set[String]()
-
-  /**
-   * It's the mapping of the form "localhost:8888/a/b/c =>
-   *   [localhost:8888, localhost:8888/a, localhost:8888/a/b, localhost:8888/a/b/c]
-   */
-  private def chunked(uri: String) =
-    uri.split("/").toSeq.foldLeft((Seq[Seq[String]](), Seq[String]())) { (accum, ch) =>
-      val newLatest = accum._2 :+ ch
-      (accum._1 :+ newLatest, newLatest)
-    }._1.map {
-      _.mkString("", "/", "/")
-    }
-
   private def storeObject(repoObj: RepositoryObject.ROType) = repoObj match {
     case c: CertificateObject => storage.storeCertificate(c)
     case c: CrlObject => storage.storeCrl(c)
@@ -286,27 +292,56 @@ class RepoFetcher(storage: Storage, fetchers: Fetchers) {
       override def withdraw(url: URI, hash: String): Unit = {
         storage.delete(url.toString, hash)
       }
+
+      override def isKnown(url: URI, hash: String) = storage.contains(url.toString, hash)
     })
 
-    fetchedObject.toRight(fetchErrors ++ typeError)
+    // without an object nor errors the certificate did not change, and it is the one in the cache
+    fetchedObject match {
+      case Some(certificate) => Right(certificate)
+      case None if fetchErrors.isEmpty && typeError.isEmpty => cachedTrustAnchorCertificate(objectUri)
+      case None => Left(fetchErrors ++ typeError)
+    }
   }
 
+  def cachedTrustAnchorCertificate(objectUri: URI): Either[Seq[Fetcher.Error], CertificateObject] =
+    storage.getCertificates(objectUri.toString).headOption.toRight(
+      Seq(ProcessingError(objectUri, "Trust anchor certificate is not in the local cache")))
+
   def fetchRepo(repoUri: URI): Seq[Fetcher.Error] = {
     val fetcher = fetchers.fetcher(repoUri)
 
-    fetcher.fetch(repoUri, new FetcherListener {
-      override def processObject(repoObj: RepositoryObject.ROType) = storeObject(repoObj)
+    val changes = new AtomicInteger
+    val changedDirectories = TrieMap[URI, Unit]()
+    def changed(url: String) = {
+      changes.incrementAndGet()
+      changedDirectories.put(URI.create(url.substring(0, url.lastIndexOf('/') + 1)), ())
+    }
+
+    val errors = fetcher.fetch(repoUri, new FetcherListener {
+      override def processObject(repoObj: RepositoryObject.ROType) = {
+        changed(repoObj.url)
+        storeObject(repoObj)
+      }
 
       override def withdraw(url: URI, hash: String) = {
+        changed(url.toString)
         storage.delete(url.toString, hash)
       }
+
+      override def isKnown(url: URI, hash: String) = storage.contains(url.toString, hash)
     })
+    if (!errors.exists(_.isInstanceOf[ConnectionError])) {
+      if (repoUri.getScheme == "rsync") FetchIntervals.fetchedWithin(repoUri, changedDirectories.keySet)
+      else FetchIntervals.fetched(repoUri, changes.get)
+    }
+    errors
   }
 }
 
 object RepoFetcher {
   def apply(storageDirectory: File, config: FetcherConfig) = {
     val path = storageDirectory.getAbsolutePath
-    new RepoFetcher(DurableCaches(path), new Fetchers(HttpFetcherStore(path), config))
+    new RepoFetcher(Caches(storageDirectory), new Fetchers(HttpFetcherStore(path), config))
   }
 }
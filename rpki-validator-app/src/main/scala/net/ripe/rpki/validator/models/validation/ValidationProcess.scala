@@ -40,16 +40,17 @@ import net.ripe.rpki.commons.validation.{ValidationCheck, ValidationLocation, Va
 import net.ripe.rpki.validator.config.{ApplicationOptions, MemoryImage}
 import net.ripe.rpki.validator.fetchers.Fetcher.Error
 import net.ripe.rpki.validator.fetchers.{Fetcher, NotifyingCertificateRepositoryObjectFetcher}
-import net.ripe.rpki.validator.lib.DateAndTime
+import net.ripe.rpki.validator.lib.{DateAndTime, Hedging}
 import net.ripe.rpki.validator.lib.Structures._
 import net.ripe.rpki.validator.models._
-import net.ripe.rpki.validator.store.{CacheStore, RepoServiceStore}
+import net.ripe.rpki.validator.store.{RepoServiceStore, Storage}
 import net.ripe.rpki.validator.util.TrustAnchorLocator
 import org.joda.time.Instant
 import scalaz.{Failure, Success, Validation}
 
 import scala.collection.JavaConverters._
 import scala.collection.mutable
+import scala.concurrent.duration.Duration
 import scala.concurrent.stm._
 
 
@@ -95,12 +96,12 @@ trait ValidationProcess {
 }
 
 class TrustAnchorValidationProcess(override val trustAnchorLocator: TrustAnchorLocator,
-                                   store: CacheStore,
+                                   store: Storage,
                                    repoService: RepoService,
                                    maxStaleDays: Int,
                                    taName: String,
                                    enableLooseValidation: Boolean = false)
-  extends ValidationProcess {
+  extends ValidationProcess with Hashing {
 
   private val validationOptions = new ValidationOptions()
 
@@ -114,28 +115,36 @@ class TrustAnchorValidationProcess(override val trustAnchorLocator: TrustAnchorL
     val firstTaCertUri = certificateLocations.head
     val validationResult = ValidationResult.withLocation(firstTaCertUri)
 
-    val validCertificateObjects = certificateLocations.flatMap { uri =>
-      RepoService.locker.locked(uri) {
-        repoService.visitTrustAnchorCertificate(uri) match {
-          case Left(errors) =>
-            fetchErrors.appendAll(errors)
-            Seq()
-          case Right(certificateObject) =>
-            if (keyInfoMatches(certificateObject.decoded)) {
-              store.delete(uri)
-              store.storeCertificate(certificateObject)
-              RepoServiceStore.updateLastFetchTime(uri, validationStart)
-              store.updateValidationTimestamp(Seq(certificateObject.hash), validationStart)
-              Seq(certificateObject)
-            } else {
-              validationResult.rejectForLocation(new ValidationLocation(uri), ValidationString.TRUST_ANCHOR_PUBLIC_KEY_MATCH)
-              Seq()
-            }
+    def visit(uri: URI)() = RepoService.locker.locked(uri) {
+      val visited = repoService.visitTrustAnchorCertificate(uri)
+      visited.right.toOption.filter(c => keyInfoMatches(c.decoded)).foreach { certificateObject =>
+        if (!repoService.cacheOnly) {
+          // the certificate hardly ever changes, so only replace it when it did
+          if (!store.contains(uri.toString, stringify(certificateObject.hash))) {
+            store.delete(uri)
+            store.storeCertificate(certificateObject)
+          }
+          RepoServiceStore.updateLastFetchTime(uri, validationStart)
         }
+        store.updateValidationTimestamp(Seq(certificateObject.hash), validationStart)
       }
+      (uri, visited)
     }
 
-    validCertificateObjects.headOption.map { taCertificate =>
+    // a slow location doesn't hold up the others, see Hedging
+    val delay = if (ApplicationOptions.hedgedFetches) ApplicationOptions.hedgeTrustAnchorDelay else Duration.Inf
+    val (validCertificateObject, others) = Hedging.firstSuccessful(certificateLocations.map(visit), delay) {
+      case (_, visited) => visited.right.exists(c => keyInfoMatches(c.decoded))
+    }
+
+    others.foreach {
+      case (_, Left(errors)) =>
+        fetchErrors.appendAll(errors)
+      case (uri, Right(_)) =>
+        validationResult.rejectForLocation(new ValidationLocation(uri), ValidationString.TRUST_ANCHOR_PUBLIC_KEY_MATCH)
+    }
+
+    validCertificateObject.flatMap(_._2.right.toOption).map { taCertificate =>
       val taCertUri = URI.create(taCertificate.url)
       ValidatedObject.valid(
         Some("cert" -> taCertificate),
@@ -164,9 +173,7 @@ class TrustAnchorValidationProcess(override val trustAnchorLocator: TrustAnchorL
   override def validateObjects(certificate: CertificateRepositoryObjectValidationContext, forceNewFetch: Boolean, startTime: Instant): Seq[ValidatedObject] = {
     trustAnchorLocator.getPrefetchUris.asScala.foreach(repoService.visitRepo(forceNewFetch, startTime))
     val walker = TopDownWalker.create(certificate, store, repoService, validationOptions, startTime, ApplicationOptions.preferRrdp)
-    block(walker.execute(forceNewFetch)) {
-      store.clearObjects(startTime)
-    }
+    walker.execute(forceNewFetch)
   }
 
   def keyInfoMatches(certificate: X509ResourceCertificate): Boolean = {
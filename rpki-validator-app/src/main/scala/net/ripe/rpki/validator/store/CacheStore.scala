@@ -42,8 +42,12 @@ import net.ripe.rpki.validator.models.validation.RepositoryObject.ROType
 import net.ripe.rpki.validator.models.validation._
 import org.joda.time.Instant
 import org.springframework.jdbc.core.RowMapper
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.core.namedparam.{MapSqlParameterSource, NamedParameterJdbcTemplate, SqlParameterSource}
+import org.springframework.jdbc.datasource.DataSourceTransactionManager
+import org.springframework.transaction.TransactionStatus
+import org.springframework.transaction.support.{TransactionCallback, TransactionTemplate}
 
+import scala.annotation.tailrec
 import scala.collection.JavaConversions._
 import scala.concurrent.duration._
 import scala.concurrent.{Await, ExecutionContext, Future}
@@ -62,6 +66,7 @@ class CacheStore(dataSource: DataSource) extends Storage with Hashing {
 
   val oldObjectsDeletionDelay: FiniteDuration = ApplicationOptions.removeOldObjectTimeoutInHours
   val bogusObjectsDeletionDelay: FiniteDuration = 24.hours
+  val collectorBatchSize: Int = ApplicationOptions.cacheCollectorBatchSize
 
   override def storeCertificate(certificate: CertificateObject) = storeRepoObject(certificate, certificateObjectType)
 
@@ -77,6 +82,17 @@ class CacheStore(dataSource: DataSource) extends Storage with Hashing {
   val executionContext = ExecutionContext.fromExecutorService(Executors.newSingleThreadExecutor())
   def detached[T](block: => T) = Await.result(Future(block)(executionContext), 29.minutes)
 
+  private val transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+
+  /**
+   * Runs the statements of the block on the database thread, all committed or none of them.
+   */
+  def transactionally[T](block: => T): T = detached {
+    transactions.execute(new TransactionCallback[T] {
+      override def doInTransaction(status: TransactionStatus) = block
+    })
+  }
+
   private def storeRepoObject[T <: CertificateRepositoryObject](obj: RepositoryObject[T], objType: String) =
     RepoService.locker.locked(obj.url) {
       detached {
@@ -87,16 +103,26 @@ class CacheStore(dataSource: DataSource) extends Storage with Hashing {
             "encoded" -> obj.encoded,
             "object_type" -> objType)
 
-          val found = template.queryForObject(
-            "SELECT COUNT(1) FROM repo_objects WHERE hash = :hash AND url = :url",
+          // the content is stored only once, no matter how many URLs it is published at
+          val blobFound = template.queryForObject(
+            "SELECT COUNT(1) FROM object_blobs WHERE hash = :hash",
             params, classOf[Integer])
 
-          if (found == 0) {
+          if (blobFound == 0) {
             template.update(
-              """INSERT INTO repo_objects(aki, hash, url, encoded, object_type)
-               VALUES(:aki, :hash, :url, :encoded, :object_type)""",
+              """INSERT INTO object_blobs(hash, aki, object_type, encoded)
+               VALUES(:hash, :aki, :object_type, :encoded)""",
               params)
           }
+
+          val urlFound = template.queryForObject(
+            "SELECT COUNT(1) FROM object_urls WHERE hash = :hash AND url = :url",
+            params, classOf[Integer])
+
+          if (urlFound == 0) {
+            template.update("INSERT INTO object_urls(url, hash) VALUES(:url, :hash)", params)
+            template.update("UPDATE object_blobs SET ref_count = ref_count + 1 WHERE hash = :hash", params)
+          }
         } catch {
           case e: Exception =>
             logger.error(s"An error occurred while inserting an object: " +
@@ -108,9 +134,11 @@ class CacheStore(dataSource: DataSource) extends Storage with Hashing {
 
   override def getCertificates(url: String): Seq[CertificateObject] = detached {
     template.query(
-      """SELECT url, encoded FROM repo_objects
-         WHERE url = :url AND object_type = :object_type
-         ORDER BY download_time DESC
+      """SELECT u.url, b.encoded
+         FROM object_urls u
+         JOIN object_blobs b ON b.hash = u.hash
+         WHERE u.url = :url AND b.object_type = :object_type
+         ORDER BY u.download_time DESC
       """,
       Map("url" -> url, "object_type" -> certificateObjectType),
       new RowMapper[CertificateObject] {
@@ -119,110 +147,252 @@ class CacheStore(dataSource: DataSource) extends Storage with Hashing {
     ).toSeq
   }
 
-  def getManifests(aki: Array[Byte]): Seq[ManifestObject] = getRepoObject[ManifestObject](aki, manifestObjectType) { (url, bytes, validationTime) =>
+  override def getManifests(aki: Array[Byte]): Seq[ManifestObject] = getRepoObject[ManifestObject](aki, manifestObjectType) { (url, bytes, validationTime) =>
     ManifestObject.parse(url, bytes).copy(validationTime = validationTime)
   }
 
   private def getRepoObject[T](aki: Array[Byte], objType: String)(mapper: (String, Array[Byte], Option[Instant]) => T) =
     detached {
       template.query(
-        """SELECT url, encoded, validation_time
-        FROM repo_objects
-        WHERE aki = :aki AND object_type = :object_type""",
+        """SELECT u.url, b.encoded, b.validation_time
+        FROM object_blobs b
+        JOIN object_urls u ON u.hash = b.hash
+        WHERE b.aki = :aki AND b.object_type = :object_type""",
         Map("aki" -> stringify(aki), "object_type" -> objType),
         new RowMapper[T] {
           override def mapRow(rs: ResultSet, i: Int) = mapper(rs.getString(1), rs.getBytes(2), instant(rs.getTimestamp(3)))
         }).toSeq
     }
 
-  override def getObjects(hash: String): Seq[RepositoryObject.ROType] =
-    getAllObjectsBy(
-      """SELECT encoded, validation_time, object_type, url
-        FROM repo_objects
-        WHERE hash = :hash""", Map("hash" -> hash))
-
-  def getAllObjects: Seq[ROType] = getAllObjectsBy("SELECT encoded, validation_time, object_type, url FROM repo_objects", Map())
+  override def contains(url: String, hash: String) = detached {
+    template.queryForObject(
+      "SELECT COUNT(1) FROM object_urls WHERE hash = :hash AND url = :url",
+      Map("hash" -> hash, "url" -> url), classOf[Integer]) > 0
+  }
 
-  def getAllObjectsBy(query: String, params: Map[String, Object]): Seq[RepositoryObject.ROType] = detached {
+  override def getObjects(hash: String): Seq[RepositoryObject.ROType] = detached {
     Try {
-      template.query(query, params,
-        new RowMapper[RepositoryObject.ROType] {
+      // read the blob once and parse it for every URL it is published at
+      val urls = template.queryForList("SELECT url FROM object_urls WHERE hash = :hash", Map("hash" -> hash), classOf[String])
+      if (urls.isEmpty) Seq()
+      else template.query(
+        "SELECT encoded, validation_time, object_type FROM object_blobs WHERE hash = :hash",
+        Map("hash" -> hash),
+        new RowMapper[Seq[RepositoryObject.ROType]] {
           override def mapRow(rs: ResultSet, i: Int) = {
-            val (bytes, validationTime, objType, url) = (rs.getBytes(1), instant(rs.getTimestamp(2)), rs.getString(3), rs.getString(4))
-            objType match {
-              case "cer" => CertificateObject.parse(url, bytes).copy(validationTime = validationTime)
-              case "roa" => RoaObject.parse(url, bytes).copy(validationTime = validationTime)
-              case "mft" => ManifestObject.parse(url, bytes).copy(validationTime = validationTime)
-              case "crl" => CrlObject.parse(url, bytes).copy(validationTime = validationTime)
-              case "gbr" => GhostbustersObject.parse(url, bytes).copy(validationTime = validationTime)
-            }
+            val (bytes, validationTime, objType) = (rs.getBytes(1), instant(rs.getTimestamp(2)), rs.getString(3))
+            urls.map(parse(_, bytes, validationTime, objType))
           }
-        })
+        }).flatten
     } match {
-      case Success(obj) => obj
+      case Success(objects) => objects
       case Failure(err) =>
-        logger.error(s"$err, parameters = $params")
+        logger.error(s"$err, hash = $hash")
         Seq()
     }
   }
 
-  def clear() = detached {
-    template.update(s"TRUNCATE TABLE repo_objects", Map.empty[String, Object])
+  override def getAllObjects: Seq[ROType] = detached {
+    Try {
+      template.query(
+        """SELECT b.encoded, b.validation_time, b.object_type, u.url
+          FROM object_blobs b
+          JOIN object_urls u ON u.hash = b.hash""",
+        Map.empty[String, Object],
+        new RowMapper[RepositoryObject.ROType] {
+          override def mapRow(rs: ResultSet, i: Int) =
+            parse(rs.getString(4), rs.getBytes(1), instant(rs.getTimestamp(2)), rs.getString(3))
+        }).toSeq
+    } match {
+      case Success(objects) => objects
+      case Failure(err) =>
+        logger.error(s"$err")
+        Seq()
+    }
   }
 
-  def clearObjects(baseTime: Instant) = detached {
-      val thresholdTime = baseTime.minus(oldObjectsDeletionDelay.toMillis)
-      val tt = timestamp(thresholdTime)
-      val i = template.update(s"DELETE FROM repo_objects WHERE validation_time < '$tt'", Map.empty[String, Object])
-      if (i != 0) info(s"Clear old objects -> deleted $i object(s) last time validated before $thresholdTime")
-
-      val bogusObjectsDeadline = baseTime.minus(bogusObjectsDeletionDelay.toMillis)
-      val j = template.update(
-        s"DELETE FROM repo_objects WHERE validation_time IS NULL AND download_time < '${timestamp(bogusObjectsDeadline)}'",
-        Map.empty[String, Object])
-      if (j != 0) info(s"Clear old objects -> deleted $j object(s) downloaded $bogusObjectsDeletionDelay before $baseTime and never validated")
+  private def parse(url: String, bytes: Array[Byte], validationTime: Option[Instant], objType: String): RepositoryObject.ROType =
+    objType match {
+      case "cer" => CertificateObject.parse(url, bytes).copy(validationTime = validationTime)
+      case "roa" => RoaObject.parse(url, bytes).copy(validationTime = validationTime)
+      case "mft" => ManifestObject.parse(url, bytes).copy(validationTime = validationTime)
+      case "crl" => CrlObject.parse(url, bytes).copy(validationTime = validationTime)
+      case "gbr" => GhostbustersObject.parse(url, bytes).copy(validationTime = validationTime)
+    }
+
+  override def clear() = detached {
+    template.update("TRUNCATE TABLE object_urls", Map.empty[String, Object])
+    template.update("TRUNCATE TABLE object_blobs", Map.empty[String, Object])
+    template.update("TRUNCATE TABLE validation_run_objects", Map.empty[String, Object])
+    // the RRDP serials are meaningless without the objects
+    template.update("TRUNCATE TABLE rrdp_sessions", Map.empty[String, Object])
+    template.update("TRUNCATE TABLE rrdp_notifications", Map.empty[String, Object])
+    template.update("TRUNCATE TABLE http_objects", Map.empty[String, Object])
+  }
+
+  /**
+   * Removes the objects that were not validated for a long time, and the ones that never
+   * passed validation, in batches of `collectorBatchSize`. Every batch is a separate
+   * database task, so validation is not blocked for the whole collection.
+   */
+  override def clearObjects(baseTime: Instant): CollectedGarbage = {
+    detached {
+      // no run is in progress between two database tasks, so whatever is left was interrupted
+      template.update("DELETE FROM validation_run_objects", Map.empty[String, Object])
+    }
+
+    val thresholdTime = baseTime.minus(oldObjectsDeletionDelay.toMillis)
+    val old = collectInBatches(
+      """SELECT hash, LENGTH(encoded) FROM object_blobs
+         WHERE validation_time < :time
+         FETCH FIRST :limit ROWS ONLY""", thresholdTime)
+    if (old.objects != 0) info(s"Clear old objects -> deleted ${old.objects} object(s) last time validated before $thresholdTime, ${old.bytes} bytes")
+
+    val bogusObjectsDeadline = baseTime.minus(bogusObjectsDeletionDelay.toMillis)
+    val bogus = collectInBatches(
+      """SELECT hash, LENGTH(encoded) FROM object_blobs
+         WHERE validation_time IS NULL AND download_time < :time
+         FETCH FIRST :limit ROWS ONLY""", bogusObjectsDeadline)
+    if (bogus.objects != 0) info(s"Clear old objects -> deleted ${bogus.objects} object(s) downloaded $bogusObjectsDeletionDelay before $baseTime and never validated, ${bogus.bytes} bytes")
+
+    old + bogus
+  }
+
+  private def collectInBatches(query: String, time: Instant): CollectedGarbage = {
+    val params = Map("time" -> timestamp(time), "limit" -> collectorBatchSize)
+
+    @tailrec
+    def collect(total: CollectedGarbage): CollectedGarbage = {
+      val batch = detached {
+        val found = template.query(query, params, new RowMapper[(String, Long)] {
+          override def mapRow(rs: ResultSet, i: Int) = (rs.getString(1), rs.getLong(2))
+        })
+        if (found.isEmpty) CollectedGarbage()
+        else withRun(found.map(f => (null, f._1))) { run =>
+          val runParams = Map("run_id" -> run)
+          val urls = template.update(
+            "DELETE FROM object_urls WHERE hash IN (SELECT hash FROM validation_run_objects WHERE run_id = :run_id)", runParams)
+          val objects = template.update(
+            "DELETE FROM object_blobs WHERE hash IN (SELECT hash FROM validation_run_objects WHERE run_id = :run_id)", runParams)
+          CollectedGarbage(objects, urls, found.map(_._2).sum)
+        }
+      }
+      if (batch.objects < collectorBatchSize) total + batch else collect(total + batch)
+    }
+
+    collect(CollectedGarbage())
+  }
+
+  /**
+   * Gives the space freed by deleted objects back to the file system. Derby never
+   * shrinks its files by itself.
+   */
+  override def compress(): Long = detached {
+    val jdbc = template.getJdbcOperations
+    val schema = jdbc.queryForObject("VALUES CURRENT SCHEMA", classOf[String])
+    Seq("OBJECT_BLOBS", "OBJECT_URLS").map { table =>
+      val saving = jdbc.queryForObject(
+        "SELECT COALESCE(SUM(estimspacesaving), 0) FROM TABLE (SYSCS_DIAG.SPACE_TABLE(?, ?)) t",
+        classOf[java.lang.Long], schema, table).longValue
+      jdbc.update("CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)", schema, table)
+      saving
+    }.sum
   }
 
   override def delete(url: String, hash: String) = detached {
-    template.update(s"DELETE FROM repo_objects WHERE url = :url AND hash = :hash",
-      Map("hash" -> hash, "url" -> url))
+    unlink(Seq((url, hash)))
   }
 
   override def delete(uri: URI) = detached {
-    template.update(s"DELETE FROM repo_objects WHERE url = :url",
-      Map("url" -> uri.toString))
+    val url = uri.toString
+    val hashes = template.queryForList("SELECT hash FROM object_urls WHERE url = :url", Map("url" -> url), classOf[String])
+    unlink(hashes.map((url, _)))
   }
 
-  override def updateValidationTimestamp(hashes: Iterable[Array[Byte]], t: Instant) = {
-    val tt = timestamp(t)
-    // That has to be as fast as possible to prevent
-    // other threads from being locked. That's why
-    // we do all that dancing.
-    val sqls = hashes.map(stringify).grouped(99).map { group =>
-      val inClause = group.map("'" + _ + "'").mkString("(", ",", ")")
-      s"UPDATE repo_objects SET validation_time = '$tt' WHERE hash IN $inClause"
+  /**
+   * Removes the URL mappings, drops the reference counts of their blobs
+   * and garbage collects the blobs that are not published anywhere anymore.
+   * Must be called from within `detached`.
+   */
+  private def unlink(mappings: Iterable[(String, String)]): Int =
+    if (mappings.isEmpty) 0
+    else withRun(mappings) { run =>
+      unlinkRun(run)
     }
 
-    if (sqls.nonEmpty) {
-      val counts = detached(template.getJdbcOperations.batchUpdate(sqls.toArray))
-      info(s"Updated validationTime for ${counts.sum} objects.")
+  private def unlinkRun(run: Long): Int = {
+    val params = Map("run_id" -> run)
+    val unlinked = template.update(
+      """DELETE FROM object_urls
+         WHERE EXISTS (SELECT 1 FROM validation_run_objects r
+                       WHERE r.run_id = :run_id AND r.url = object_urls.url AND r.hash = object_urls.hash)""", params)
+    template.update(
+      """UPDATE object_blobs
+         SET ref_count = ref_count - (SELECT COUNT(1) FROM validation_run_objects r
+                                      WHERE r.run_id = :run_id AND r.hash = object_blobs.hash)
+         WHERE hash IN (SELECT hash FROM validation_run_objects WHERE run_id = :run_id)""", params)
+    template.update(
+      """DELETE FROM object_blobs
+         WHERE ref_count <= 0 AND hash IN (SELECT hash FROM validation_run_objects WHERE run_id = :run_id)""", params)
+    unlinked
+  }
+
+  /**
+   * Puts the (url, hash) pairs into the validation_run_objects work table under a
+   * fresh run id, so that they can be joined against in a constant number of
+   * statements, instead of building one statement per object or per URL.
+   * Must be called from within `detached`.
+   */
+  private def withRun[T](rows: Iterable[(String, String)])(f: Long => T): T = {
+    val run = template.getJdbcOperations.queryForObject("VALUES NEXT VALUE FOR validation_run_seq", classOf[java.lang.Long]).longValue
+    try {
+      rows.grouped(1000).foreach { group =>
+        val batch: Array[SqlParameterSource] = group.map { case (url, hash) =>
+          new MapSqlParameterSource(Map("run_id" -> run, "url" -> url, "hash" -> hash))
+        }.toArray
+        template.batchUpdate("INSERT INTO validation_run_objects(run_id, url, hash) VALUES(:run_id, :url, :hash)", batch)
+      }
+      f(run)
+    } finally {
+      template.update("DELETE FROM validation_run_objects WHERE run_id = :run_id", Map("run_id" -> run))
     }
   }
 
+  override def updateValidationTimestamp(hashes: Iterable[Array[Byte]], t: Instant) =
+    if (hashes.nonEmpty) {
+      val count = detached {
+        withRun(hashes.map(h => (null, stringify(h)))) { run =>
+          template.update(
+            """UPDATE object_blobs SET validation_time = :validation_time
+               WHERE hash IN (SELECT hash FROM validation_run_objects WHERE run_id = :run_id)""",
+            Map("validation_time" -> timestamp(t), "run_id" -> run))
+        }
+      }
+      info(s"Updated validationTime for $count objects.")
+    }
+
   private def timestamp(timestamp: Instant) = new Timestamp(timestamp.getMillis)
   private def instant(d: java.util.Date) = Option(d).map(d => new Instant(d.getTime))
 
-  override def cleanOutdated(validated: Iterable[(URI, Array[Byte])]) = {
-    val sqls = validated.groupBy(_._1).map { case (uri, hashes) =>
-      val inClause = hashes.view.map(p => "'" + stringify(p._2) + "'").mkString("(", ",", ")")
-      s"DELETE FROM repo_objects WHERE url = '$uri' AND hash NOT IN $inClause"
-    }
-    if (sqls.nonEmpty) {
-      val counts = detached(template.getJdbcOperations.batchUpdate(sqls.toArray))
-      val sum = counts.sum
+  override def cleanOutdated(validated: Iterable[(URI, Array[Byte])]) =
+    if (validated.nonEmpty) {
+      val sum = detached {
+        withRun(validated.map(p => (p._1.toString, stringify(p._2)))) { run =>
+          // every other object at the URLs of the validated ones is outdated
+          withRun(Seq()) { outdated =>
+            template.update(
+              """INSERT INTO validation_run_objects(run_id, url, hash)
+                 SELECT :outdated_id, u.url, u.hash FROM object_urls u
+                 WHERE u.url IN (SELECT url FROM validation_run_objects WHERE run_id = :run_id)
+                 AND NOT EXISTS (SELECT 1 FROM validation_run_objects r
+                                 WHERE r.run_id = :run_id AND r.url = u.url AND r.hash = u.hash)""",
+              Map("outdated_id" -> outdated, "run_id" -> run))
+            unlinkRun(outdated)
+          }
+        }
+      }
       if (sum > 0) info(s"Clear old objects -> deleted $sum objects for which exists a valid alternative.")
     }
-  }
 }
 
 object DurableCaches extends SimpleSingletons[String, CacheStore]({
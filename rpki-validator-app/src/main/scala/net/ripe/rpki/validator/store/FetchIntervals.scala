@@ -0,0 +1,119 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.net.URI
+
+import net.ripe.rpki.validator.config.ApplicationOptions
+import org.joda.time.{Duration, Instant}
+
+import scala.collection.concurrent.TrieMap
+
+case class IntervalBounds(minimum: Duration, initial: Duration, maximum: Duration)
+
+/**
+ * Learns how often to fetch every repository. A fetch that brought changes halves the interval,
+ * one that brought none makes it half as long again, within the bounds for the kind of repository.
+ * A repository is fetched sooner when a manifest or CRL in it is about to reach its next update time,
+ * so that its successor is picked up in time.
+ *
+ * Intervals are learned for every publication point, also when a whole rsync module is fetched at once.
+ */
+class FetchIntervals(bounds: URI => IntervalBounds) {
+
+  private val learned = TrieMap[URI, Duration]()
+  private val expectedUpdates = TrieMap[URI, Instant]()
+
+  def fetched(uri: URI, changes: Int): Unit = learn(uri, changes > 0)
+
+  /**
+   * Learns from a fetch of an rsync directory, a publication point or a whole module, for every publication
+   * point in it that was asked for before. Only the objects directly in a publication point count as its
+   * changes, those of the publication points below it are theirs.
+   */
+  def fetchedWithin(root: URI, changedDirectories: collection.Set[URI]): Unit = {
+    val prefix = root.toString
+    learned.keys.filter(_.toString.startsWith(prefix)).foreach { publicationPoint =>
+      learn(publicationPoint, changedDirectories.contains(publicationPoint))
+    }
+  }
+
+  private def learn(uri: URI, changed: Boolean): Unit = {
+    val IntervalBounds(minimum, initial, maximum) = bounds(uri)
+    val current = learned.getOrElse(uri, initial)
+    val next =
+      if (changed) current.dividedBy(2)
+      else current.plus(current.dividedBy(2))
+    learned.put(uri, if (next.isShorterThan(minimum)) minimum else if (next.isLongerThan(maximum)) maximum else next)
+    // what is expected is learned again from what validation finds in the new state of the repository
+    expectedUpdates.remove(uri)
+  }
+
+  /**
+   * Notes that something in the repository expects an update at the given time, the earliest time counts.
+   * Times that are past already are ignored, fetching sooner than usual doesn't help a late publisher.
+   */
+  def expectUpdate(uri: URI, nextUpdate: Instant): Unit =
+    if (nextUpdate.isAfterNow) {
+      var noted = false
+      while (!noted) {
+        noted = expectedUpdates.putIfAbsent(uri, nextUpdate) match {
+          case None => true
+          case Some(earliest) => !nextUpdate.isBefore(earliest) || expectedUpdates.replace(uri, earliest, nextUpdate)
+        }
+      }
+    }
+
+  /**
+   * From the first time its interval is asked for, a publication point learns from the fetches of the
+   * directories it is in.
+   */
+  def interval(uri: URI, lastFetchTime: Instant): Duration = {
+    val IntervalBounds(minimum, initial, _) = bounds(uri)
+    val usual = learned.putIfAbsent(uri, initial).getOrElse(initial)
+    expectedUpdates.get(uri).map { nextUpdate =>
+      val untilUpdate = new Duration(lastFetchTime, nextUpdate.minus(minimum))
+      if (untilUpdate.isShorterThan(minimum)) minimum
+      else if (untilUpdate.isShorterThan(usual)) untilUpdate
+      else usual
+    }.getOrElse(usual)
+  }
+
+  def reset(): Unit = {
+    learned.clear()
+    expectedUpdates.clear()
+  }
+}
+
+object FetchIntervals extends FetchIntervals(uri =>
+  if (uri.getScheme == "rsync")
+    IntervalBounds(ApplicationOptions.rsyncFetcherMinInterval, ApplicationOptions.rsyncFetcherInterval, ApplicationOptions.rsyncFetcherMaxInterval)
+  else
+    IntervalBounds(ApplicationOptions.rrdpFetcherMinInterval, ApplicationOptions.rddpFetcherInterval, ApplicationOptions.rrdpFetcherMaxInterval))
@@ -30,22 +30,140 @@
 package net.ripe.rpki.validator.store
 
 import java.net.URI
+import java.sql.ResultSet
 
-class HttpFetcherStore {
+import net.ripe.rpki.validator.config.{ApplicationOptions, HttpValidators}
+import org.springframework.jdbc.core.RowMapper
 
-  var sessions = List[(URI, String, BigInt)]()
+import scala.collection.JavaConversions._
 
-  def clear() = {
-    sessions = List[(URI, String, BigInt)]()
+/**
+ * Keeps the session id and serial number of the last RRDP snapshot or delta applied for every notification URL,
+ * the HTTP validators of the last notification file processed, and the validators and hash of the last single
+ * object, like a trust anchor certificate, fetched over HTTP.
+ */
+trait HttpFetcherStore {
+
+  def clear(): Unit
+
+  def getSerial(url: URI, sessionId: String): Option[BigInt]
+
+  def getValidators(url: URI): Option[HttpValidators]
+
+  /**
+   * Stores the session and serial reached and the validators of the notification file that led there
+   * at once, so that they never refer to different versions of the repository.
+   */
+  def storeNotification(url: URI, session: Option[(String, BigInt)], validators: Option[HttpValidators]): Unit
+
+  def storeSerial(url: URI, sessionId: String, serial: BigInt): Unit = storeNotification(url, Some((sessionId, serial)), None)
+
+  def storeValidators(url: URI, v: HttpValidators): Unit = storeNotification(url, None, Some(v))
+
+  def getObjectValidators(url: URI): Option[(HttpValidators, String)]
+
+  def storeObjectValidators(url: URI, v: HttpValidators, hash: String): Unit
+}
+
+class InMemoryHttpFetcherStore extends HttpFetcherStore {
+
+  private var sessions = Map[URI, (String, BigInt)]()
+
+  private var validators = Map[URI, HttpValidators]()
+
+  private var objectValidators = Map[URI, (HttpValidators, String)]()
+
+  override def clear(): Unit = synchronized {
+    sessions = Map()
+    validators = Map()
+    objectValidators = Map()
+  }
+
+  override def getSerial(url: URI, sessionId: String): Option[BigInt] =
+    sessions.get(url).filter(_._1 == sessionId).map(_._2)
+
+  override def getValidators(url: URI): Option[HttpValidators] = validators.get(url)
+
+  override def storeNotification(url: URI, session: Option[(String, BigInt)], v: Option[HttpValidators]): Unit = synchronized {
+    session.foreach(s => sessions += url -> s)
+    v.foreach(v => validators += url -> v)
   }
 
-  def storeSerial(url: URI, sessionId: String, serial: BigInt) =
-    sessions = (url, sessionId, serial) :: sessions.filterNot(s => s._1 == url && s._2 == sessionId)
+  override def getObjectValidators(url: URI): Option[(HttpValidators, String)] = objectValidators.get(url)
 
-  def getSerial(url: URI, sessionId: String): Option[BigInt] =
-    sessions.find(s => s._1 == url && s._2 == sessionId).map(_._3)
+  override def storeObjectValidators(url: URI, v: HttpValidators, hash: String): Unit = synchronized {
+    objectValidators += url -> ((v, hash))
+  }
+}
+
+/**
+ * Keeps the RRDP state in the database of the object cache, so that the fetchers continue with deltas
+ * after a restart. The state is written on the same thread as the objects, after the objects it refers to,
+ * and the session, serial and validators of a notification file are written in a single transaction.
+ */
+class DurableHttpFetcherStore(cacheStore: CacheStore) extends HttpFetcherStore {
+
+  private val template = cacheStore.template
+
+  override def clear(): Unit = cacheStore.transactionally {
+    template.update("DELETE FROM rrdp_sessions", Map.empty[String, Object])
+    template.update("DELETE FROM rrdp_notifications", Map.empty[String, Object])
+    template.update("DELETE FROM http_objects", Map.empty[String, Object])
+  }
+
+  override def getSerial(url: URI, sessionId: String): Option[BigInt] = cacheStore.detached {
+    template.queryForList(
+      "SELECT serial_number FROM rrdp_sessions WHERE url = :url AND session_id = :session_id",
+      Map("url" -> url.toString, "session_id" -> sessionId), classOf[String]).headOption.map(BigInt(_))
+  }
+
+  override def getValidators(url: URI): Option[HttpValidators] = cacheStore.detached {
+    template.query(
+      "SELECT etag, last_modified FROM rrdp_notifications WHERE url = :url",
+      Map("url" -> url.toString),
+      new RowMapper[HttpValidators] {
+        override def mapRow(rs: ResultSet, i: Int) = HttpValidators(Option(rs.getString(1)), Option(rs.getString(2)))
+      }).headOption
+  }
+
+  override def storeNotification(url: URI, session: Option[(String, BigInt)], validators: Option[HttpValidators]): Unit =
+    cacheStore.transactionally {
+      session.foreach { case (sessionId, serial) =>
+        upsert("rrdp_sessions", Map("url" -> url.toString, "session_id" -> sessionId, "serial_number" -> serial.toString))
+      }
+      validators.foreach { v =>
+        upsert("rrdp_notifications", Map("url" -> url.toString, "etag" -> v.etag.orNull, "last_modified" -> v.lastModified.orNull))
+      }
+    }
+
+  override def getObjectValidators(url: URI): Option[(HttpValidators, String)] = cacheStore.detached {
+    template.query(
+      "SELECT etag, last_modified, hash FROM http_objects WHERE url = :url",
+      Map("url" -> url.toString),
+      new RowMapper[(HttpValidators, String)] {
+        override def mapRow(rs: ResultSet, i: Int) = (HttpValidators(Option(rs.getString(1)), Option(rs.getString(2))), rs.getString(3))
+      }).headOption
+  }
+
+  override def storeObjectValidators(url: URI, v: HttpValidators, hash: String): Unit = cacheStore.transactionally {
+    upsert("http_objects", Map("url" -> url.toString, "etag" -> v.etag.orNull, "last_modified" -> v.lastModified.orNull, "hash" -> hash))
+  }
+
+  private def upsert(table: String, params: Map[String, String]): Unit = {
+    val columns = params.keys.filterNot(_ == "url")
+    val updated = template.update(
+      s"UPDATE $table SET ${columns.map(c => s"$c = :$c").mkString(", ")} WHERE url = :url", params)
+    if (updated == 0) {
+      template.update(
+        s"INSERT INTO $table(${params.keys.mkString(", ")}) VALUES(${params.keys.map(":" + _).mkString(", ")})", params)
+    }
+  }
 }
 
-object HttpFetcherStore extends SimpleSingletons[String, HttpFetcherStore]({ path => new HttpFetcherStore() }) {
-  def inMemory: HttpFetcherStore = new HttpFetcherStore()
+object HttpFetcherStore extends SimpleSingletons[String, HttpFetcherStore]({ path =>
+  // the RRDP state is only worth keeping as long as the objects it refers to
+  if (ApplicationOptions.cacheInMemory) new InMemoryHttpFetcherStore()
+  else new DurableHttpFetcherStore(DurableCaches(path))
+}) {
+  def inMemory: HttpFetcherStore = new InMemoryHttpFetcherStore()
 }
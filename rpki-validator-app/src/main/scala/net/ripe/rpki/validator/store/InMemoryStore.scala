@@ -0,0 +1,213 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.net.URI
+
+import net.ripe.rpki.validator.config.ApplicationOptions
+import net.ripe.rpki.validator.models.validation.RepositoryObject.ROType
+import net.ripe.rpki.validator.models.validation._
+import org.joda.time.Instant
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration._
+import scala.language.existentials
+
+/**
+ * Keeps the object cache in memory, without any database behind it, for validators that
+ * rebuild their cache from the repositories on every start anyway and for tests.
+ *
+ * Objects are kept decoded, the content once per hash, together with indexes by URL and
+ * by AKI and type. Readers go straight to the concurrent maps, writers are serialized.
+ */
+class InMemoryStore extends Storage with Hashing {
+
+  private case class Entry(obj: ROType, objectType: String, aki: String, downloadTime: Instant, validationTime: Option[Instant])
+
+  private val objects = TrieMap[String, Entry]()
+  private val urlsByHash = TrieMap[String, Set[String]]()
+  private val hashesByUrl = TrieMap[String, Map[String, Instant]]()
+  private val hashesByAki = TrieMap[(String, String), Set[String]]()
+
+  val oldObjectsDeletionDelay: FiniteDuration = ApplicationOptions.removeOldObjectTimeoutInHours
+  val bogusObjectsDeletionDelay: FiniteDuration = 24.hours
+
+  override def storeCertificate(certificate: CertificateObject) = store(certificate, "cer")
+
+  override def storeRoa(roa: RoaObject) = store(roa, "roa")
+
+  override def storeGhostbusters(ghostbusters: GhostbustersObject) = store(ghostbusters, "gbr")
+
+  override def storeManifest(manifest: ManifestObject) = store(manifest, "mft")
+
+  override def storeCrl(crl: CrlObject) = store(crl, "crl")
+
+  private def store(obj: ROType, objectType: String) = synchronized {
+    val hash = stringify(obj.hash)
+    val now = Instant.now
+    if (!objects.contains(hash)) {
+      val aki = stringify(obj.aki)
+      objects.put(hash, Entry(obj, objectType, aki, now, None))
+      hashesByAki.put((aki, objectType), hashesByAki.getOrElse((aki, objectType), Set()) + hash)
+    }
+    val hashes = hashesByUrl.getOrElse(obj.url, Map())
+    if (!hashes.contains(hash)) {
+      hashesByUrl.put(obj.url, hashes + (hash -> now))
+      urlsByHash.put(hash, urlsByHash.getOrElse(hash, Set()) + obj.url)
+    }
+  }
+
+  override def getCertificates(url: String): Seq[CertificateObject] =
+    hashesByUrl.getOrElse(url, Map()).toSeq.sortBy(-_._2.getMillis).flatMap { case (hash, _) =>
+      objects.get(hash).collect {
+        case Entry(c: CertificateObject, _, _, _, _) => c.copy(url = url, validationTime = None)
+      }
+    }
+
+  override def getManifests(aki: Array[Byte]): Seq[ManifestObject] =
+    hashesByAki.getOrElse((stringify(aki), "mft"), Set()).toSeq.flatMap(find).collect {
+      case m: ManifestObject => m
+    }
+
+  override def getObjects(hash: String): Seq[ROType] = find(hash)
+
+  override def contains(url: String, hash: String) = urlsByHash.get(hash).exists(_.contains(url))
+
+  def getAllObjects: Seq[ROType] = objects.keys.toSeq.flatMap(find)
+
+  private def find(hash: String): Seq[ROType] =
+    objects.get(hash).toSeq.flatMap { entry =>
+      urlsByHash.getOrElse(hash, Set()).toSeq.map(relocated(entry.obj, _, entry.validationTime))
+    }
+
+  private def relocated(obj: ROType, url: String, validationTime: Option[Instant]): ROType = obj match {
+    case c: CertificateObject => c.copy(url = url, validationTime = validationTime)
+    case r: RoaObject => r.copy(url = url, validationTime = validationTime)
+    case m: ManifestObject => m.copy(url = url, validationTime = validationTime)
+    case c: CrlObject => c.copy(url = url, validationTime = validationTime)
+    case g: GhostbustersObject => g.copy(url = url, validationTime = validationTime)
+  }
+
+  override def delete(url: String, hash: String) = synchronized {
+    unlink(url, hash)
+  }
+
+  override def delete(uri: URI) = synchronized {
+    val url = uri.toString
+    hashesByUrl.getOrElse(url, Map()).keys.foreach(unlink(url, _))
+  }
+
+  /**
+   * Removes the URL mapping and the object itself once it is not published anywhere anymore.
+   * Must be called while holding the lock.
+   */
+  private def unlink(url: String, hash: String): Boolean = {
+    val hashes = hashesByUrl.getOrElse(url, Map())
+    if (!hashes.contains(hash)) false
+    else {
+      if (hashes.size == 1) hashesByUrl.remove(url) else hashesByUrl.put(url, hashes - hash)
+      val urls = urlsByHash.getOrElse(hash, Set()) - url
+      if (urls.nonEmpty) urlsByHash.put(hash, urls) else remove(hash)
+      true
+    }
+  }
+
+  private def remove(hash: String) = {
+    urlsByHash.remove(hash).getOrElse(Set()).foreach { url =>
+      val hashes = hashesByUrl.getOrElse(url, Map()) - hash
+      if (hashes.isEmpty) hashesByUrl.remove(url) else hashesByUrl.put(url, hashes)
+    }
+    objects.remove(hash).foreach { entry =>
+      val key = (entry.aki, entry.objectType)
+      val hashes = hashesByAki.getOrElse(key, Set()) - hash
+      if (hashes.isEmpty) hashesByAki.remove(key) else hashesByAki.put(key, hashes)
+    }
+  }
+
+  override def clear() = synchronized {
+    objects.clear()
+    urlsByHash.clear()
+    hashesByUrl.clear()
+    hashesByAki.clear()
+  }
+
+  override def updateValidationTimestamp(hashes: Iterable[Array[Byte]], t: Instant) =
+    if (hashes.nonEmpty) {
+      val count = synchronized {
+        hashes.map(stringify).toSet.count { hash =>
+          objects.get(hash).exists { entry =>
+            objects.put(hash, entry.copy(validationTime = Some(t)))
+            true
+          }
+        }
+      }
+      info(s"Updated validationTime for $count objects.")
+    }
+
+  override def cleanOutdated(validated: Iterable[(URI, Array[Byte])]) =
+    if (validated.nonEmpty) {
+      val sum = synchronized {
+        val keep = validated.map(p => (p._1.toString, stringify(p._2))).toSet
+        // every other object at the URLs of the validated ones is outdated
+        val outdated = for {
+          url <- keep.map(_._1)
+          hash <- hashesByUrl.getOrElse(url, Map()).keys
+          if !keep.contains((url, hash))
+        } yield (url, hash)
+        outdated.count { case (url, hash) => unlink(url, hash) }
+      }
+      if (sum > 0) info(s"Clear old objects -> deleted $sum objects for which exists a valid alternative.")
+    }
+
+  override def clearObjects(baseTime: Instant): CollectedGarbage = {
+    val thresholdTime = baseTime.minus(oldObjectsDeletionDelay.toMillis)
+    val old = collect(_.validationTime.exists(_.isBefore(thresholdTime)))
+    if (old.objects != 0) info(s"Clear old objects -> deleted ${old.objects} object(s) last time validated before $thresholdTime, ${old.bytes} bytes")
+
+    val bogusObjectsDeadline = baseTime.minus(bogusObjectsDeletionDelay.toMillis)
+    val bogus = collect(e => e.validationTime.isEmpty && e.downloadTime.isBefore(bogusObjectsDeadline))
+    if (bogus.objects != 0) info(s"Clear old objects -> deleted ${bogus.objects} object(s) downloaded $bogusObjectsDeletionDelay before $baseTime and never validated, ${bogus.bytes} bytes")
+
+    old + bogus
+  }
+
+  private def collect(garbage: Entry => Boolean): CollectedGarbage =
+    objects.filter(e => garbage(e._2)).keys.foldLeft(CollectedGarbage()) { (total, hash) =>
+      synchronized {
+        objects.get(hash).filter(garbage).fold(total) { entry =>
+          val urls = urlsByHash.getOrElse(hash, Set()).size
+          remove(hash)
+          total + CollectedGarbage(1, urls, entry.obj.encoded.length)
+        }
+      }
+    }
+
+  override def compress(): Long = 0
+}
@@ -0,0 +1,69 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.net.URI
+
+import net.ripe.rpki.validator.config.ApplicationOptions
+import org.joda.time.{Duration, Instant}
+
+import scala.collection.concurrent.TrieMap
+
+case class RepoFailure(failures: Int, lastFailure: Instant, retryAt: Instant, message: String) {
+  def describe = s"Not fetched until $retryAt after $failures failed attempt(s), the last one failed with: $message"
+}
+
+/**
+ * Keeps track of the repositories that could not be reached. After every failed attempt a repository
+ * is left alone for twice as long as after the previous one, up to the maximum backoff. Until then the
+ * circuit is open: it isn't fetched and validation uses what is in the cache. A successful fetch closes it.
+ */
+class RepoFailures(initialBackoff: Duration, maximumBackoff: Duration) {
+
+  private val failing = TrieMap[URI, RepoFailure]()
+
+  def failed(uri: URI, message: String, at: Instant): RepoFailure = {
+    val failures = failing.get(uri).map(_.failures).getOrElse(0) + 1
+    val backoff = initialBackoff.getMillis << math.min(failures - 1, 30)
+    val failure = RepoFailure(failures, at, at.plus(math.min(backoff, maximumBackoff.getMillis)), message)
+    failing.put(uri, failure)
+    failure
+  }
+
+  def succeeded(uri: URI): Unit = failing.remove(uri)
+
+  def openCircuit(uri: URI, now: Instant): Option[RepoFailure] = failing.get(uri).filter(f => now.isBefore(f.retryAt))
+
+  def all: Map[URI, RepoFailure] = failing.readOnlySnapshot().toMap
+
+  def reset(): Unit = failing.clear()
+}
+
+object RepoFailures extends RepoFailures(ApplicationOptions.fetchBackoffInitial, ApplicationOptions.fetchBackoffMaximum)
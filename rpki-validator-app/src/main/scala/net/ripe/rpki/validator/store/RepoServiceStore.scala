@@ -33,26 +33,52 @@ import java.net.URI
 
 import org.joda.time.Instant
 
+import scala.annotation.tailrec
+import scala.collection.concurrent.TrieMap
+
+/**
+ * The last fetch times of repositories, in a trie of URI path segments. A fetch of a repository
+ * counts for everything below it, so finding the last fetch time of a URI means looking at it and
+ * its ancestors only, which takes as many steps as the URI has segments.
+ */
 object RepoServiceStore {
 
-  var times = Map[String, Instant]()
+  private class Node {
+    @volatile var time: Option[Instant] = None
+    val children = TrieMap[String, Node]()
 
-  @inline
-  private def norm(uri: URI) = {
-    val u = uri.toString
-    if (u.endsWith("/")) u else u + "/"
+    def child(segment: String): Node = children.get(segment).getOrElse {
+      val node = new Node
+      children.putIfAbsent(segment, node).getOrElse(node)
+    }
   }
 
+  private val root = new Node
+
+  private val never = new Instant().withMillis(0)
+
+  private def segments(uri: URI) = uri.toString.split("/").filter(_.nonEmpty).toList
+
   def getLastFetchTime(uri: URI): Instant = {
-    val instants = times.filterKeys(norm(uri).startsWith).values
-    if (instants.isEmpty) new Instant().withMillis(0)
-    else instants.maxBy(_.getMillis)
+    @tailrec
+    def latest(node: Node, segments: List[String], found: Instant): Instant = {
+      val time = node.time.filter(_.isAfter(found)).getOrElse(found)
+      segments match {
+        case Nil => time
+        case s :: rest => node.children.get(s) match {
+          case Some(child) => latest(child, rest, time)
+          case None => time
+        }
+      }
+    }
+    latest(root, segments(uri), never)
   }
 
-  def updateLastFetchTime(uri: URI, instant: Instant) = synchronized {
-    times = times + (norm(uri) -> instant)
+  def updateLastFetchTime(uri: URI, instant: Instant) = {
+    val node = segments(uri).foldLeft(root)(_ child _)
+    node.time = Some(instant)
   }
 
   def reset() =
-    times = Map.empty
+    root.children.clear()
 }
@@ -29,9 +29,11 @@
  */
 package net.ripe.rpki.validator.store
 
+import java.io.File
 import java.net.URI
 
 import grizzled.slf4j.Logging
+import net.ripe.rpki.validator.config.ApplicationOptions
 import net.ripe.rpki.validator.models.validation._
 import org.joda.time.Instant
 
@@ -41,6 +43,8 @@ trait Storage extends Logging {
 
   def getObjects(hash: String) : Seq[RepositoryObject.ROType]
 
+  def contains(url: String, hash: String): Boolean
+
   def storeCertificate(certificate: CertificateObject)
 
   def storeManifest(manifest: ManifestObject)
@@ -55,6 +59,8 @@ trait Storage extends Logging {
 
   def getManifests(aki: Array[Byte]): Seq[ManifestObject]
 
+  def getAllObjects: Seq[RepositoryObject.ROType]
+
   def delete(url: String, hash: String)
 
   def delete(uri: URI)
@@ -65,8 +71,34 @@ trait Storage extends Logging {
 
   def cleanOutdated(validated: Iterable[(URI, Array[Byte])])
 
+  /**
+   * Removes the objects that were not validated for a long time, and the ones that never passed validation.
+   */
+  def clearObjects(baseTime: Instant): CollectedGarbage
+
+  /**
+   * Gives the space of deleted objects back, returns the number of bytes reclaimed.
+   */
+  def compress(): Long
+
+}
+
+case class CollectedGarbage(objects: Int = 0, urls: Int = 0, bytes: Long = 0) {
+  def +(that: CollectedGarbage) = CollectedGarbage(objects + that.objects, urls + that.urls, bytes + that.bytes)
 }
 
+/**
+ * The object cache of the validator, in the Derby database in the work directory
+ * or in memory, depending on the `cache.store` option.
+ */
+object Caches {
+  def apply(workDir: File): Storage =
+    if (ApplicationOptions.cacheInMemory) InMemoryCaches(workDir.getAbsolutePath)
+    else DurableCaches(workDir)
+}
+
+object InMemoryCaches extends SimpleSingletons[String, InMemoryStore](_ => new InMemoryStore)
+
 /**
  * Generic template for storage singletons.
  */
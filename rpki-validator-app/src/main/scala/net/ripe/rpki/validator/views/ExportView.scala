@@ -81,6 +81,12 @@ class ExportView extends View with ViewHelpers {
         </tr>
       </table>
       <p>You can find additional documentation <a href="https://www.ripe.net/data-tools/developer-documentation/rpki-validator-api">here</a>.</p>
+      <h3>Unreachable repositories</h3>
+      <p>Repositories that could not be fetched are tried again after a backoff that doubles with every failure.
+        Until then validation uses the objects in the local cache. This lists them, with the time they are tried again:</p>
+      <div class="well monospace">
+        GET <a href="/api/v1/repositories/failing">/api/v1/repositories/failing</a>
+      </div>
   }
 
   def apiLink(asn: String, prefix: String) = {
@@ -55,6 +55,7 @@ Usage: $0 start    [-c /path/to/my-configuration.conf]
    or  $0 stop     [-c /path/to/my-configuration.conf]
    or  $0 status   [-c /path/to/my-configuration.conf]
    or  $0 watchdog -u http://check/url [-c /path/to/my-configuration.conf]
+   or  $0 wipe-rsync-cache [-c /path/to/my-configuration.conf]
 EOF
 }
 
@@ -238,6 +239,15 @@ function restart_validator {
     start_validator
 }
 
+function wipe_rsync_cache {
+    if [ ${RUNNING} == "true" ]; then
+        error_exit "${APP_NAME} is running, stop it before wiping the rsync cache"
+    fi
+
+    CLASSPATH=:"$LIB_DIR/*"
+    ${JAVA_CMD} ${JVM_OPTIONS} ${JAVA_OPTS} -classpath ${CLASSPATH} net.ripe.rpki.validator.config.Main wipe-rsync-cache
+}
+
 function check_and_maybe_restart_validator {
     if [ -z ${CHECK_URL} ]; then
         echo "Check URL is not set, please set the parameter: -u URL"
@@ -284,6 +294,9 @@ case ${FIRST_ARG} in
     watchdog)
         check_and_maybe_restart_validator
         ;;
+    wipe-rsync-cache)
+        wipe_rsync_cache
+        ;;
     *)
         usage
         exit
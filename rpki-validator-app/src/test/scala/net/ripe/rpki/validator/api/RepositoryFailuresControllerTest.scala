@@ -0,0 +1,63 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.api
+
+import java.net.URI
+
+import net.ripe.rpki.validator.store.RepoFailure
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.joda.time.Instant
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatra.ScalatraFilter
+import org.scalatra.test.scalatest.ScalatraFunSuite
+
+@RunWith(classOf[JUnitRunner])
+class RepositoryFailuresControllerTest extends ValidatorTestCase with ScalatraFunSuite {
+
+  private val lastFailure = new Instant(1000000000000L)
+  private val retryAt = new Instant(1000000060000L)
+
+  private val controller = new ScalatraFilter with RepositoryFailuresController {
+    protected def getRepositoryFailures = Map(
+      new URI("rsync://host/repo/") -> RepoFailure(2, lastFailure, retryAt, "Connection refused"))
+  }
+  addFilter(controller, "/*")
+
+  test("should list the repositories that could not be fetched") {
+    get("/v1/repositories/failing") {
+      status should be(200)
+      body should include(""""uri":"rsync://host/repo/"""")
+      body should include(""""failures":2""")
+      body should include(s""""retry_at":"$retryAt"""")
+      body should include(""""message":"Connection refused"""")
+    }
+  }
+}
@@ -30,6 +30,8 @@
 package net.ripe.rpki.validator.config
 
 import java.io.File
+
+import com.typesafe.config.ConfigFactory
 import net.ripe.rpki.validator.support.ValidatorTestCase
 
 //noinspection NameBooleanParameters
@@ -102,8 +104,70 @@ class ApplicationOptionsTest extends ValidatorTestCase {
     ApplicationOptions.rsyncDirLocation should equal("data/rsync")
   }
 
+  test("Should not read repositories from a local mirror by default") {
+    ApplicationOptions.mirrorDirLocation should be(None)
+  }
+
+  test("Should neither record nor replay fetches by default") {
+    ApplicationOptions.fetchRecordDirLocation should be(None)
+    ApplicationOptions.fetchReplayDirLocation should be(None)
+    ApplicationOptions.fetchReplayLatencyFactor should be(0.0)
+  }
+
   test("Should set interval between old object removals") {
     ApplicationOptions.removeOldObjectTimeoutInHours should equal(1.days)
   }
 
+  test("Should collect old objects from the cache in the background") {
+    ApplicationOptions.cacheCollectorInterval should equal(10.minutes)
+    ApplicationOptions.cacheCollectorBatchSize should equal(1000)
+    ApplicationOptions.cacheCompressInterval should equal(1.day)
+  }
+
+  test("Should pool HTTP connections with the default limits and timeouts") {
+    ApplicationOptions.httpMaxConnections should equal(64)
+    ApplicationOptions.httpMaxConnectionsPerHost should equal(8)
+    ApplicationOptions.httpConnectTimeout should equal(11.seconds)
+    ApplicationOptions.httpSocketTimeout should equal(29.seconds)
+    ApplicationOptions.rrdpDeltaDownloads should equal(8)
+  }
+
+  test("Should limit rsync processes and kill them at the default deadline") {
+    ApplicationOptions.rsyncMaxProcesses should equal(16)
+    ApplicationOptions.rsyncMaxProcessesPerHost should equal(4)
+    ApplicationOptions.rsyncDeadline should equal(20.minutes)
+    ApplicationOptions.rsyncFetchWholeModules should be(true)
+  }
+
+  test("Should adapt the fetch intervals and back off within the default bounds") {
+    ApplicationOptions.adaptiveFetchIntervals should be(true)
+    ApplicationOptions.rsyncFetcherMinInterval should equal(org.joda.time.Duration.standardMinutes(2))
+    ApplicationOptions.rsyncFetcherMaxInterval should equal(org.joda.time.Duration.standardHours(1))
+    ApplicationOptions.rrdpFetcherMinInterval should equal(org.joda.time.Duration.standardMinutes(1))
+    ApplicationOptions.rrdpFetcherMaxInterval should equal(org.joda.time.Duration.standardMinutes(15))
+    ApplicationOptions.fetchBackoffInitial should equal(org.joda.time.Duration.standardMinutes(1))
+    ApplicationOptions.fetchBackoffMaximum should equal(org.joda.time.Duration.standardHours(1))
+  }
+
+  test("Should validate again at least a minute after the last validation") {
+    ApplicationOptions.validationIntervalMin should equal(1.minute)
+  }
+
+  test("Should hedge slow fetches by default") {
+    ApplicationOptions.hedgedFetches should be(true)
+    ApplicationOptions.hedgeTrustAnchorDelay should equal(5.seconds)
+    ApplicationOptions.hedgeRepositoryDelay should equal(1.minute)
+  }
+
+  test("Should keep the cache in the database by default") {
+    ApplicationOptions.cacheInMemory should be(false)
+  }
+
+  test("Should read the interval and hedging switch that share a prefix with other keys") {
+    val reference = ConfigFactory.defaultReference()
+    reference.getInt("fetch.rsync.interval") should be(10)
+    reference.getBoolean("fetch.hedge.enabled") should be(true)
+    ApplicationOptions.rsyncFetcherInterval should equal(org.joda.time.Duration.standardMinutes(10))
+  }
+
 }
@@ -31,7 +31,7 @@ package net.ripe.rpki.validator.config
 
 import net.ripe.rpki.validator.config.health.{Code, Health, Status}
 import net.ripe.rpki.validator.support.ValidatorTestCase
-import org.joda.time.DateTime
+import org.joda.time.{DateTime, Instant}
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 
 @org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
@@ -66,4 +66,17 @@ class HealthTest extends ValidatorTestCase with BeforeAndAfterAll with BeforeAnd
     ) should equal(Status.ok)
   }
 
+  test("Should run a cached check again only after it expired") {
+    var checks = 0
+    val cached = new Health.CachedStatus(org.joda.time.Duration.standardMinutes(5))({ checks += 1; Status.ok })
+    val now = new Instant
+
+    cached(now) should equal(Status.ok)
+    cached(now.plus(org.joda.time.Duration.standardMinutes(4))) should equal(Status.ok)
+    checks should be(1)
+
+    cached(now.plus(org.joda.time.Duration.standardMinutes(5)))
+    checks should be(2)
+  }
+
 }
@@ -80,6 +80,14 @@ class HttpTest extends ValidatorTestCase with JunitLoggingSetup with BeforeAndAf
   }
 
 
+  test("Should share the pooled client between everything trusting the same certificates") {
+    val other = new Http with Logging {
+      override def trustedCertsLocation: File = subject.trustedCertsLocation
+    }
+
+    other.http should be theSameInstanceAs subject.http
+  }
+
   object HttpServer {
     import org.eclipse.jetty.server.Server
     val server = new Server()
@@ -0,0 +1,98 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.File
+import java.net.URI
+import java.nio.file.Files
+
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateTest
+import net.ripe.rpki.validator.fetchers.Fetcher.ConnectionError
+import net.ripe.rpki.validator.models.validation.RepositoryObject
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.apache.commons.io.FileUtils
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class LocalMirrorFetcherTest extends ValidatorTestCase {
+
+  val certificate = X509ResourceCertificateTest.createSelfSignedCaResourceCertificate.getEncoded
+
+  def withMirror(f: (File, LocalMirrorFetcher) => Unit) = {
+    val mirror = Files.createTempDirectory("local-mirror-test").toFile
+    try f(mirror, new LocalMirrorFetcher(FetcherConfig(rsyncDir = ""), mirror))
+    finally FileUtils.deleteDirectory(mirror)
+  }
+
+  class Collector extends FetcherListener {
+    var objects = List[String]()
+    var withdraws = List[URI]()
+    override def processObject(repoObj: RepositoryObject.ROType) = objects = repoObj.url :: objects
+    override def withdraw(url: URI, hash: String) = withdraws = url :: withdraws
+  }
+
+  test("Should read a repository from the mirror and pick up the changes") {
+    withMirror { (mirror, fetcher) =>
+      val repository = new File(mirror, "host/module/repo")
+      repository.mkdirs()
+      Files.write(new File(repository, "ta.cer").toPath, certificate)
+      Files.write(new File(repository, "other.cer").toPath, certificate)
+
+      val first = new Collector
+      fetcher.fetch(new URI("rsync://host/module/repo/"), first) should have size 0
+      first.objects.sorted should be(List("rsync://host/module/repo/other.cer", "rsync://host/module/repo/ta.cer"))
+
+      new File(repository, "other.cer").delete()
+      val second = new Collector
+      fetcher.fetch(new URI("rsync://host/module/repo/"), second) should have size 0
+      second.objects should be(List())
+      second.withdraws should be(List(new URI("rsync://host/module/repo/other.cer")))
+    }
+  }
+
+  test("Should read a single object from the mirror") {
+    withMirror { (mirror, fetcher) =>
+      new File(mirror, "host/module").mkdirs()
+      Files.write(new File(mirror, "host/module/ta.cer").toPath, certificate)
+
+      val collector = new Collector
+      fetcher.fetch(new URI("rsync://host/module/ta.cer"), collector) should have size 0
+      collector.objects should be(List("rsync://host/module/ta.cer"))
+    }
+  }
+
+  test("Should report a connection error for what is not in the mirror") {
+    withMirror { (mirror, fetcher) =>
+      val errors = fetcher.fetch(new URI("rsync://host/module/missing/"), new Collector)
+
+      errors should have size 1
+      errors.head.isInstanceOf[ConnectionError] should be(true)
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.net.URI
+import java.nio.file.Files
+
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateTest
+import net.ripe.rpki.validator.fetchers.Fetcher.{ConnectionError, ProcessingError}
+import net.ripe.rpki.validator.models.validation.{CertificateObject, RepositoryObject}
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.apache.commons.io.FileUtils
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class ReplayFetcherTest extends ValidatorTestCase {
+
+  val repoUrl = new URI("rsync://host/repo/")
+  val certificate = CertificateObject("rsync://host/repo/ta.cer", X509ResourceCertificateTest.createSelfSignedCaResourceCertificate)
+
+  // publishes the certificate, withdraws another object and fails to parse a third
+  object CannedFetcher extends Fetcher {
+    override def fetch(url: URI, fetcherListener: FetcherListener) = {
+      Thread.sleep(50)
+      fetcherListener.processObject(certificate)
+      fetcherListener.withdraw(new URI("rsync://host/repo/old.roa"), "AB")
+      Seq(ProcessingError(new URI("rsync://host/repo/broken.roa"), "Could not parse object"))
+    }
+  }
+
+  class Collector extends FetcherListener {
+    var events = List[String]()
+    override def processObject(repoObj: RepositoryObject.ROType) = events = events :+ s"publish ${repoObj.url}"
+    override def withdraw(url: URI, hash: String) = events = events :+ s"withdraw $url $hash"
+  }
+
+  def withArchive(f: FetchArchive => Unit) = {
+    val directory = Files.createTempDirectory("fetch-archive-test").toFile
+    try f(new FetchArchive(directory))
+    finally FileUtils.deleteDirectory(directory)
+  }
+
+  test("Should replay what was recorded") {
+    withArchive { archive =>
+      val recording = new Collector
+      val errors = new RecordingFetcher(CannedFetcher, archive).fetch(repoUrl, recording)
+
+      val replaying = new Collector
+      val replayedErrors = new ReplayFetcher(FetchReplay(archive), singleObject = false).fetch(repoUrl, replaying)
+
+      replaying.events should be(recording.events)
+      replaying.events should be(List("publish rsync://host/repo/ta.cer", "withdraw rsync://host/repo/old.roa AB"))
+      replayedErrors should be(errors)
+    }
+  }
+
+  test("Should replay the recorded fetches of a repository in order and then report no changes") {
+    withArchive { archive =>
+      val recorder = new RecordingFetcher(CannedFetcher, archive)
+      recorder.fetch(repoUrl, new Collector)
+      archive.write(RecordedFetch(repoUrl, 0, Seq(RecordedFetch.Withdrawn(new URI("rsync://host/repo/ta.cer"), "CD"))))
+
+      val fetcher = new ReplayFetcher(FetchReplay(archive), singleObject = false)
+      def replay() = {
+        val collector = new Collector
+        fetcher.fetch(repoUrl, collector)
+        collector.events
+      }
+
+      replay() should have size 2
+      replay() should be(List("withdraw rsync://host/repo/ta.cer CD"))
+      replay() should be(List())
+    }
+  }
+
+  test("Should keep replaying the last recording of a single object") {
+    withArchive { archive =>
+      new RecordingFetcher(CannedFetcher, archive).fetch(new URI(certificate.url), new Collector)
+
+      val fetcher = new ReplayFetcher(FetchReplay(archive), singleObject = true)
+      (1 to 3).foreach { _ =>
+        val collector = new Collector
+        fetcher.fetch(new URI(certificate.url), collector)
+        collector.events should contain("publish rsync://host/repo/ta.cer")
+      }
+    }
+  }
+
+  test("Should take as long as the recorded fetch, times the latency factor") {
+    withArchive { archive =>
+      archive.write(RecordedFetch(repoUrl, 200, Seq()))
+
+      val start = System.currentTimeMillis
+      new ReplayFetcher(FetchReplay(archive), singleObject = false, latencyFactor = 1).fetch(repoUrl, new Collector)
+
+      System.currentTimeMillis - start should be >= 200L
+    }
+  }
+
+  test("Should report a connection error for what was not recorded") {
+    withArchive { archive =>
+      val errors = new ReplayFetcher(FetchReplay(archive), singleObject = false).fetch(repoUrl, new Collector)
+
+      errors should be(Seq(ConnectionError(repoUrl, s"$repoUrl is not in the recording")))
+    }
+  }
+
+  test("Should record the objects the listener knows already") {
+    withArchive { archive =>
+      // like the fetchers, only hands over what the listener doesn't know
+      val skippingKnown = new Fetcher {
+        override def fetch(url: URI, fetcherListener: FetcherListener) = {
+          if (!fetcherListener.isKnown(new URI(certificate.url), "AB")) fetcherListener.processObject(certificate)
+          Seq()
+        }
+      }
+      val warmCache = new Collector {
+        override def isKnown(url: URI, hash: String) = true
+      }
+      new RecordingFetcher(skippingKnown, archive).fetch(repoUrl, warmCache)
+
+      val replaying = new Collector
+      new ReplayFetcher(FetchReplay(archive), singleObject = false).fetch(repoUrl, replaying)
+
+      replaying.events should be(List("publish rsync://host/repo/ta.cer"))
+    }
+  }
+
+  test("Should read a recorded fetch only when it is replayed") {
+    withArchive { archive =>
+      val otherUrl = new URI("rsync://other/repo/")
+      archive.write(RecordedFetch(repoUrl, 0, Seq(RecordedFetch.Withdrawn(new URI("rsync://host/repo/ta.cer"), "CD"))))
+      archive.write(RecordedFetch(otherUrl, 0, Seq()))
+      val replay = FetchReplay(archive)
+
+      val (_, otherFile) = archive.index().find(_._1 == otherUrl).get
+      otherFile.delete()
+
+      val collector = new Collector
+      new ReplayFetcher(replay, singleObject = false).fetch(repoUrl, collector)
+      collector.events should be(List("withdraw rsync://host/repo/ta.cer CD"))
+
+      intercept[java.io.IOException] {
+        new ReplayFetcher(replay, singleObject = false).fetch(otherUrl, new Collector)
+      }
+    }
+  }
+}
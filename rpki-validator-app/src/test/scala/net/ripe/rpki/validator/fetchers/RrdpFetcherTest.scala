@@ -33,13 +33,14 @@ import java.io.ByteArrayInputStream
 import java.net.URI
 
 import net.ripe.ipresource.IpResourceSet
-import net.ripe.rpki.validator.config.Http
+import net.ripe.rpki.validator.config.{Http, HttpValidators}
 import net.ripe.rpki.validator.models.validation._
-import net.ripe.rpki.validator.store.{DataSources, HttpFetcherStore}
+import net.ripe.rpki.validator.store.{DataSources, InMemoryHttpFetcherStore}
 import net.ripe.rpki.validator.support.ValidatorTestCase
-import org.apache.http.HttpEntity
+import org.apache.http.{HttpEntity, HttpStatus, ProtocolVersion}
 import org.apache.http.client.methods.{CloseableHttpResponse, HttpGet}
 import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.message.{BasicHeader, BasicStatusLine}
 import org.mockito.Matchers._
 import org.mockito.Mockito.when
 import org.mockito.invocation.InvocationOnMock
@@ -50,7 +51,7 @@ import org.scalatest.mock.MockitoSugar
 @org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
 class RrdpFetcherTest extends ValidatorTestCase with BeforeAndAfter with MockitoSugar {
 
-  val store = new HttpFetcherStore()
+  val store = new InMemoryHttpFetcherStore()
 
   type FetcherReturnType = Either[BrokenObject, RepositoryObject.ROType]
 
@@ -300,4 +301,125 @@ class RrdpFetcherTest extends ValidatorTestCase with BeforeAndAfter with Mockito
     serial should be(Some(BigInt(1)))
   }
 
+  test("Should apply the units of a large snapshot in their original order") {
+    val certificate = "(?s)<publish[^>]*>(.*)</publish>".r.findFirstMatchIn(file("mock-http-responses/test1/snapshot1.xml")).get.group(1)
+    val units = (1 to 100).map { i =>
+      if (i % 3 == 0) s"""<withdraw uri="rsync://bandito.ripe.net/repo/$i.cer" hash="AB"/>"""
+      else s"""<publish uri="rsync://bandito.ripe.net/repo/$i.cer">$certificate</publish>"""
+    }
+    val snapshot = s"""<snapshot xmlns="HTTP://www.ripe.net/rpki/rrdp" version="1" session_id="9df4b597-af9e-4dca-bdda-719cce2c4e28" serial="1">${units.mkString}</snapshot>"""
+
+    val fetcher = mockedFetcher(Map(
+      "http://repo.net/repo/notification.xml" -> file("mock-http-responses/test1/notification1.xml"),
+      "http://repo.net/repo/snapshot.xml" -> snapshot
+    ))
+
+    var applied = List[String]()
+    val errors = fetcher.fetch(new URI("http://repo.net/repo/notification.xml"), new FetcherListener {
+      override def processObject(repoObj: RepositoryObject.ROType) = applied = repoObj.url :: applied
+      override def withdraw(url: URI, hash: String) = applied = url.toString :: applied
+    })
+
+    errors should have size 0
+    applied.reverse should be((1 to 100).map(i => s"rsync://bandito.ripe.net/repo/$i.cer"))
+  }
+
+  test("Should send the ETag of the last notification file processed and skip it when not modified") {
+    var ifNoneMatch = List[Option[String]]()
+    val fetcher = new RrdpFetcher(store) with Http {
+      override def http = {
+        val httpMock = mock[CloseableHttpClient]
+        when(httpMock.execute(any[HttpGet])).thenAnswer(new Answer[CloseableHttpResponse]() {
+          override def answer(invocation: InvocationOnMock) = {
+            val get = invocation.getArguments()(0).asInstanceOf[HttpGet]
+            val response = mock[CloseableHttpResponse]
+            get.getURI.toString match {
+              case "http://repo.net/repo/notification.xml" =>
+                val etag = Option(get.getFirstHeader("If-None-Match")).map(_.getValue)
+                ifNoneMatch = ifNoneMatch :+ etag
+                if (etag == Some("\"1\"")) {
+                  when(response.getStatusLine).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_MODIFIED, "Not Modified"))
+                } else {
+                  val entity = mock[HttpEntity]
+                  when(response.getStatusLine).thenReturn(statusLineOk)
+                  when(response.getFirstHeader("ETag")).thenReturn(new BasicHeader("ETag", "\"1\""))
+                  when(entity.getContent).thenReturn(new ByteArrayInputStream(file("mock-http-responses/test1/notification1.xml").getBytes))
+                  when(response.getEntity).thenReturn(entity)
+                }
+              case "http://repo.net/repo/snapshot.xml" =>
+                val entity = mock[HttpEntity]
+                when(response.getStatusLine).thenReturn(statusLineOk)
+                when(entity.getContent).thenReturn(new ByteArrayInputStream(file("mock-http-responses/test1/snapshot1.xml").getBytes))
+                when(response.getEntity).thenReturn(entity)
+            }
+            response
+          }
+        })
+        httpMock
+      }
+    }
+
+    val (objects, _, errors) = fetchRepo(fetcher, "http://repo.net/repo/notification.xml")
+    errors should have size 0
+    objects should have size 1
+
+    val (objectsAgain, _, errorsAgain) = fetchRepo(fetcher, "http://repo.net/repo/notification.xml")
+    errorsAgain should have size 0
+    objectsAgain should have size 0
+
+    ifNoneMatch should be(List(None, Some("\"1\"")))
+  }
+
+  test("Should keep the new ETag of a notification file with an unchanged serial and get a 304 next time") {
+    val notificationUrl = URI.create("http://repo.net/repo/notification.xml")
+    store.storeNotification(notificationUrl, Some(("9df4b597-af9e-4dca-bdda-719cce2c4e28", BigInt(1))), Some(HttpValidators(Some("\"old\""), None)))
+
+    var ifNoneMatch = List[Option[String]]()
+    val fetcher = new RrdpFetcher(store) with Http {
+      override def http = {
+        val httpMock = mock[CloseableHttpClient]
+        when(httpMock.execute(any[HttpGet])).thenAnswer(new Answer[CloseableHttpResponse]() {
+          override def answer(invocation: InvocationOnMock) = {
+            val get = invocation.getArguments()(0).asInstanceOf[HttpGet]
+            val response = mock[CloseableHttpResponse]
+            val etag = Option(get.getFirstHeader("If-None-Match")).map(_.getValue)
+            ifNoneMatch = ifNoneMatch :+ etag
+            if (etag == Some("\"2\"")) {
+              when(response.getStatusLine).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_MODIFIED, "Not Modified"))
+            } else {
+              val entity = mock[HttpEntity]
+              when(response.getStatusLine).thenReturn(statusLineOk)
+              when(response.getFirstHeader("ETag")).thenReturn(new BasicHeader("ETag", "\"2\""))
+              when(entity.getContent).thenReturn(new ByteArrayInputStream(file("mock-http-responses/test1/notification1.xml").getBytes))
+              when(response.getEntity).thenReturn(entity)
+            }
+            response
+          }
+        })
+        httpMock
+      }
+    }
+
+    val (objects, _, errors) = fetchRepo(fetcher, notificationUrl.toString)
+    errors should have size 0
+    objects should have size 0
+    store.getValidators(notificationUrl).flatMap(_.etag) should be(Some("\"2\""))
+    store.getSerial(notificationUrl, "9df4b597-af9e-4dca-bdda-719cce2c4e28") should be(Some(BigInt(1)))
+
+    val (_, _, errorsAgain) = fetchRepo(fetcher, notificationUrl.toString)
+    errorsAgain should have size 0
+
+    ifNoneMatch should be(List(Some("\"old\""), Some("\"2\"")))
+  }
+
+  test("Should not process a notification file with the session and serial of the last one processed") {
+    store.storeSerial(URI.create("http://repo.net/repo/notification.xml"), "9df4b597-af9e-4dca-bdda-719cce2c4e28", BigInt(1))
+
+    val fetcher = mockedFetcher(Map(
+      "http://repo.net/repo/notification.xml" -> file("mock-http-responses/test1/notification1.xml")
+    ))
+
+    fetcher.getNotificationIfChanged(URI.create("http://repo.net/repo/notification.xml"), None).right.map(_._1) should be(Right(None))
+  }
+
 }
@@ -0,0 +1,87 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.ByteArrayInputStream
+import java.net.URI
+import javax.xml.stream.XMLStreamException
+
+import com.google.common.io.BaseEncoding
+import net.ripe.rpki.validator.fetchers.RrdpParser._
+import net.ripe.rpki.validator.support.ValidatorTestCase
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class RrdpParserTest extends ValidatorTestCase {
+
+  private def parse(xml: String) = {
+    var units = List[DeltaUnit]()
+    RrdpParser.parse(new ByteArrayInputStream(xml.getBytes)) { u => units = u :: units }
+    units.reverse
+  }
+
+  test("Should return publish and withdraw units in document order") {
+    val units = parse(
+      """<delta xmlns="http://www.ripe.net/rpki/rrdp" version="1" session_id="1" serial="2">
+        |  <publish uri="rsync://host/a.cer">AQID</publish>
+        |  <withdraw uri="rsync://host/b.cer" hash="ABCD"/>
+        |  <publish uri="rsync://host/c.cer" hash="EF01"><![CDATA[BAUG]]></publish>
+        |</delta>""".stripMargin)
+
+    units.map(u => (u.url, u.hash)) should be(Seq(
+      (new URI("rsync://host/a.cer"), ""),
+      (new URI("rsync://host/b.cer"), "ABCD"),
+      (new URI("rsync://host/c.cer"), "EF01")))
+    units.head.asInstanceOf[PublishUnit].bytes should be(Array[Byte](1, 2, 3))
+    units.last.asInstanceOf[PublishUnit].bytes should be(Array[Byte](4, 5, 6))
+  }
+
+  test("Should decode large base64 content split over lines") {
+    val bytes = Array.tabulate[Byte](100000)(_.toByte)
+    val text = BaseEncoding.base64().encode(bytes).grouped(76).mkString("\n")
+
+    val units = parse(s"""<snapshot version="1" session_id="1" serial="1"><publish uri="rsync://host/a.cer">\n$text\n</publish></snapshot>""")
+
+    units.head.asInstanceOf[PublishUnit].bytes should be(bytes)
+  }
+
+  test("Should fail on a publish element without uri") {
+    an[XMLStreamException] should be thrownBy parse("""<snapshot version="1" session_id="1" serial="1"><publish>AQID</publish></snapshot>""")
+  }
+
+  test("Should not resolve external entities") {
+    val xml =
+      """<?xml version="1.0"?>
+        |<!DOCTYPE snapshot [<!ENTITY xxe SYSTEM "file:///etc/passwd">]>
+        |<snapshot version="1" session_id="1" serial="1"><publish uri="rsync://host/a.cer">&xxe;</publish></snapshot>""".stripMargin
+
+    an[XMLStreamException] should be thrownBy parse(xml)
+  }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.fetchers
+
+import java.io.File
+import java.net.{ServerSocket, URI}
+import java.util.concurrent.Executors
+
+import net.ripe.rpki.validator.support.ValidatorTestCase
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class RsyncSchedulerTest extends ValidatorTestCase {
+
+  private def scheduler(command: String*)(maxProcesses: Int = 4, maxProcessesPerHost: Int = 4, deadline: FiniteDuration = 1.minute) =
+    new RsyncScheduler(maxProcesses, maxProcessesPerHost, deadline) {
+      override protected def commandLine(url: URI, options: Seq[String], destination: File) = command
+    }
+
+  test("Should report the exit code and the output of a failed rsync") {
+    val s = scheduler("sh", "-c", "echo broken >&2; exit 3")()
+
+    val result = s.rsync(new URI("rsync://host/repo/"), Seq(), new File("."))
+
+    result.isLeft should be(true)
+    result.left.get should include("Returned code: 3")
+    result.left.get should include("broken")
+    s.metrics.completed should be(1)
+  }
+
+  test("Should kill rsync when it runs past the deadline") {
+    val s = scheduler("sleep", "30")(deadline = 200.millis)
+
+    val startedAt = System.currentTimeMillis
+    val result = s.rsync(new URI("rsync://host/repo/"), Seq(), new File("."))
+
+    result.left.get should include("deadline")
+    System.currentTimeMillis - startedAt should be < 30000L
+    s.metrics.killed should be(1)
+  }
+
+  test("Should report why an in-process transfer failed") {
+    val server = new ServerSocket(0)
+    Future {
+      val socket = server.accept()
+      socket.getOutputStream.write("@RSYNCD: 31.0\n".getBytes("UTF-8"))
+      socket.getInputStream.read(new Array[Byte](100))
+      socket.getOutputStream.write("@ERROR: Unknown module 'repo'\n".getBytes("UTF-8"))
+      socket.close()
+    }(ExecutionContext.global)
+    val s = new RsyncScheduler(4, 4, 1.minute, inProcess = true)
+
+    try {
+      val result = s.rsync(new URI(s"rsync://localhost:${server.getLocalPort}/repo/"), Seq("--recursive"), new File("."))
+      result.left.get should include("Unknown module 'repo'")
+      s.metrics.completed should be(1)
+    } finally server.close()
+  }
+
+  test("Should abort an in-process transfer when it runs past the deadline") {
+    val server = new ServerSocket(0)
+    val s = new RsyncScheduler(4, 4, 200.millis, inProcess = true)
+
+    try {
+      val startedAt = System.currentTimeMillis
+      val result = s.rsync(new URI(s"rsync://localhost:${server.getLocalPort}/repo/"), Seq("--recursive"), new File("."))
+
+      result.left.get should include("deadline")
+      System.currentTimeMillis - startedAt should be < 30000L
+      s.metrics.killed should be(1)
+    } finally server.close()
+  }
+
+  test("Should run at most the allowed number of processes per host") {
+    val s = scheduler("sleep", "0.3")(maxProcessesPerHost = 1)
+    implicit val threads = ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(3))
+
+    val startedAt = System.currentTimeMillis
+    val runs = Seq.fill(3)(Future(s.rsync(new URI("rsync://host/repo/"), Seq(), new File("."))))
+    Await.result(Future.sequence(runs), 10.seconds).foreach(_ should be(Right(())))
+
+    System.currentTimeMillis - startedAt should be >= 900L
+    s.metrics.completed should be(3)
+    s.metrics.totalWaitMillis should be >= 800L
+    s.metrics.queued should be(0)
+    s.metrics.running should be(0)
+    threads.shutdown()
+  }
+}
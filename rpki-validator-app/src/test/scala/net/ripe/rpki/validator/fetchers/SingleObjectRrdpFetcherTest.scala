@@ -32,11 +32,12 @@ package net.ripe.rpki.validator.fetchers
 import java.io.InputStream
 import java.net.URI
 
-import net.ripe.rpki.validator.config.Http
+import net.ripe.rpki.validator.config.{Http, HttpValidators}
 import net.ripe.rpki.validator.models.validation._
-import net.ripe.rpki.validator.store.{DataSources, HttpFetcherStore}
+import net.ripe.rpki.validator.store.{DataSources, InMemoryHttpFetcherStore}
 import net.ripe.rpki.validator.support.ValidatorTestCase
-import org.apache.http.HttpEntity
+import org.apache.http.message.{BasicHeader, BasicStatusLine}
+import org.apache.http.{HttpEntity, HttpStatus, ProtocolVersion}
 import org.apache.http.client.methods.{CloseableHttpResponse, HttpGet}
 import org.apache.http.impl.client.CloseableHttpClient
 import org.mockito.Matchers._
@@ -49,7 +50,7 @@ import org.scalatest.mock.MockitoSugar
 @org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
 class SingleObjectRrdpFetcherTest extends ValidatorTestCase with BeforeAndAfter with MockitoSugar {
 
-  val store = new HttpFetcherStore()
+  val store = new InMemoryHttpFetcherStore()
 
   type FetcherReturnType = Either[BrokenObject, RepositoryObject.ROType]
 
@@ -110,4 +111,55 @@ class SingleObjectRrdpFetcherTest extends ValidatorTestCase with BeforeAndAfter
     c.url should be("http://repo.net/repo/ta.cer")
   }
 
+  test("Should fetch the object again only when it changed, as long as it is known") {
+    var ifNoneMatch = List[Option[String]]()
+    val fetcher = new SingleObjectHttpFetcher(store) with Http {
+      override def http = {
+        val httpMock = mock[CloseableHttpClient]
+        when(httpMock.execute(any[HttpGet])).thenAnswer(new Answer[CloseableHttpResponse]() {
+          override def answer(invocation: InvocationOnMock) = {
+            val etag = Option(invocation.getArguments()(0).asInstanceOf[HttpGet].getFirstHeader("If-None-Match")).map(_.getValue)
+            ifNoneMatch = ifNoneMatch :+ etag
+            val response = mock[CloseableHttpResponse]
+            if (etag == Some("\"1\"")) {
+              when(response.getStatusLine).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_MODIFIED, "Not Modified"))
+            } else {
+              val entity = mock[HttpEntity]
+              when(response.getStatusLine).thenReturn(statusLineOk)
+              when(response.getFirstHeader("ETag")).thenReturn(new BasicHeader("ETag", "\"1\""))
+              when(entity.getContent).thenReturn(SingleObjectRrdpFetcherTest.this.readFile("mock-http-responses/ta.cer"))
+              when(response.getEntity).thenReturn(entity)
+            }
+            response
+          }
+        })
+        httpMock
+      }
+    }
+
+    var known = Set[String]()
+    def fetch() = {
+      var objects = List[String]()
+      val errors = fetcher.fetch(new URI("http://repo.net/repo/conditional-ta.cer"), new FetcherListener {
+        override def processObject(repoObj: RepositoryObject.ROType) = {
+          objects = repoObj.url :: objects
+          known += repoObj.hash.map("%02X".format(_)).mkString
+        }
+        override def withdraw(url: URI, hash: String) = {}
+        override def isKnown(url: URI, hash: String) = known.contains(hash)
+      })
+      errors should have size 0
+      objects
+    }
+
+    fetch() should be(List("http://repo.net/repo/conditional-ta.cer"))
+    fetch() should be(List())
+
+    known = Set()
+    fetch() should be(List("http://repo.net/repo/conditional-ta.cer"))
+
+    ifNoneMatch should be(List(None, Some("\"1\""), None))
+    store.getObjectValidators(new URI("http://repo.net/repo/conditional-ta.cer")).map(_._1) should be(Some(HttpValidators(Some("\"1\""), None)))
+  }
+
 }
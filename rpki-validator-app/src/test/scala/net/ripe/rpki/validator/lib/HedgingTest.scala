@@ -0,0 +1,79 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator
+package lib
+
+import java.util.concurrent.CountDownLatch
+
+import support.ValidatorTestCase
+
+import scala.concurrent.duration._
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class HedgingTest extends ValidatorTestCase {
+  import Hedging._
+
+  test("should return the first successful result without starting the others") {
+    @volatile var secondStarted = false
+    val result = firstSuccessful(Seq(() => 1, () => { secondStarted = true; 2 }), Duration.Inf)(_ > 0)
+
+    result should equal((Some(1), Seq()))
+    secondStarted should be(false)
+  }
+
+  test("should start the next alternative when the first takes longer than the delay") {
+    val release = new CountDownLatch(1)
+    val slow = () => { release.await(); 1 }
+
+    val result = firstSuccessful(Seq(slow, () => 2), 50.millis)(_ > 0)
+    release.countDown()
+
+    result should equal((Some(2), Seq()))
+  }
+
+  test("should start the next alternative right away when the first is unsuccessful") {
+    val result = firstSuccessful(Seq(() => -1, () => 2), Duration.Inf)(_ > 0)
+
+    result should equal((Some(2), Seq(-1)))
+  }
+
+  test("should return all results when none is successful") {
+    val result = firstSuccessful(Seq(() => -1, () => -2, () => -3), 10.millis)(_ > 0)
+
+    result._1 should be(None)
+    result._2.sorted should equal(Seq(-3, -2, -1))
+  }
+
+  test("should pass on exceptions") {
+    intercept[IllegalStateException] {
+      firstSuccessful(Seq(() => throw new IllegalStateException("boom")), Duration.Inf)((_: Int) > 0)
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.models
+
+import java.net.URI
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, Executors, ThreadPoolExecutor, TimeUnit}
+
+import net.ripe.rpki.validator.fetchers.Fetcher.ConnectionError
+import net.ripe.rpki.validator.support.ValidatorTestCase
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class FetchCoordinatorTest extends ValidatorTestCase {
+
+  test("Should let concurrent fetches of the same repository join the one in progress") {
+    val coordinator = new FetchCoordinator
+    val uri = new URI("rsync://host/repo/")
+    val fetches = new AtomicInteger
+    val started = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    val errors = Seq(ConnectionError(uri, "Timed out"))
+    val pool = Executors.newFixedThreadPool(4).asInstanceOf[ThreadPoolExecutor]
+    implicit val threads = ExecutionContext.fromExecutorService(pool)
+
+    val first = Future {
+      coordinator.coordinated(uri) {
+        fetches.incrementAndGet()
+        started.countDown()
+        release.await(10, TimeUnit.SECONDS)
+        errors
+      }
+    }
+    started.await(10, TimeUnit.SECONDS)
+    val others = Seq.fill(3)(Future(coordinator.coordinated(uri) {
+      fetches.incrementAndGet()
+      Seq()
+    }))
+    while (pool.getActiveCount < 4) Thread.sleep(10)
+    Thread.sleep(200)
+    coordinator.inProgress should be(Set(uri))
+
+    release.countDown()
+
+    Await.result(Future.sequence(first +: others), 10.seconds).foreach(_ should be(errors))
+    fetches.get should be(1)
+    coordinator.inProgress should be(empty)
+    threads.shutdown()
+  }
+
+  test("Should fetch again once the previous fetch is finished") {
+    val coordinator = new FetchCoordinator
+    val uri = new URI("rsync://host/repo/")
+    val fetches = new AtomicInteger
+
+    coordinator.coordinated(uri) { fetches.incrementAndGet(); Seq() }
+    coordinator.coordinated(uri) { fetches.incrementAndGet(); Seq() }
+
+    fetches.get should be(2)
+  }
+
+  test("Should pass on a failed fetch and forget about it") {
+    val coordinator = new FetchCoordinator
+    val uri = new URI("rsync://host/repo/")
+
+    an[IllegalStateException] should be thrownBy coordinator.coordinated(uri) { throw new IllegalStateException("broken") }
+    coordinator.inProgress should be(empty)
+  }
+}
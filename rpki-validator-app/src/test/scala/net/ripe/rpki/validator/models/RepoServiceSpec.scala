@@ -33,7 +33,7 @@ import java.net.URI
 
 import net.ripe.rpki.validator.fetchers.Fetcher.{ConnectionError, ParseError}
 import net.ripe.rpki.validator.models.validation.RepoFetcher
-import net.ripe.rpki.validator.store.RepoServiceStore
+import net.ripe.rpki.validator.store.{FetchIntervals, RepoFailures, RepoServiceStore}
 import org.joda.time.{Duration, Instant}
 import org.mockito.Mockito
 import org.mockito.internal.verification.VerificationModeFactory
@@ -50,6 +50,8 @@ class RepoServiceSpec extends FunSuite with Matchers with BeforeAndAfterEach wit
   override def beforeEach() {
     Mockito.reset(fetcher)
     RepoServiceStore.reset()
+    RepoFailures.reset()
+    FetchIntervals.reset()
   }
 
   test("should fetch if URI was never visited") {
@@ -81,6 +83,70 @@ class RepoServiceSpec extends FunSuite with Matchers with BeforeAndAfterEach wit
     Mockito.verify(fetcher, VerificationModeFactory.times(2)).fetchRepo(uri)
   }
 
+  test("should fetch the whole rsync module once for all the publication points in it") {
+    val module = new URI("rsync://foo.bar/repo/")
+    val instant = Instant.now()
+
+    repoService.visitRepo(false, instant)(new URI("rsync://foo.bar/repo/a/"))
+    repoService.visitRepo(false, instant)(new URI("rsync://foo.bar/repo/b/c/"))
+
+    Mockito.verify(fetcher, VerificationModeFactory.times(1)).fetchRepo(module)
+    repoService.lastFetchTime(new URI("rsync://foo.bar/repo/b/c/")) should be(instant)
+  }
+
+  test("should decide whether the rsync module is due with the interval of the publication point") {
+    val module = new URI("rsync://foo.bar/repo/")
+    val busy = new URI("rsync://foo.bar/repo/busy/")
+    val quiet = new URI("rsync://foo.bar/repo/quiet/")
+    val start = Instant.now()
+    repoService.visitRepo(false, start)(busy)
+    repoService.visitRepo(false, start)(quiet)
+    (1 to 3).foreach(_ => FetchIntervals.fetchedWithin(module, Set(busy)))
+
+    val later = start.plus(Duration.standardMinutes(3))
+    repoService.visitRepo(false, later)(quiet)
+    Mockito.verify(fetcher, VerificationModeFactory.times(1)).fetchRepo(module)
+    repoService.visitRepo(false, later)(busy)
+    Mockito.verify(fetcher, VerificationModeFactory.times(2)).fetchRepo(module)
+  }
+
+  test("should find the module of an rsync URI") {
+    RepoService.rsyncModule(new URI("rsync://foo.bar/repo/a/b/")) should be(new URI("rsync://foo.bar/repo/"))
+    RepoService.rsyncModule(new URI("rsync://foo.bar:873/repo")) should be(new URI("rsync://foo.bar:873/repo/"))
+    RepoService.rsyncModule(new URI("rsync://foo.bar/")) should be(new URI("rsync://foo.bar/"))
+  }
+
+  test("should not fetch an unreachable repository again until its backoff is over") {
+    val uri = new URI("http://foo.bar/bla")
+    Mockito.when(fetcher.fetchRepo(uri)).thenReturn(Seq(ConnectionError(uri, "Connection refused")))
+
+    val firstInstant = Instant.now()
+    repoService.visitRepo(false, firstInstant)(uri)
+    val errors = repoService.visitRepo(false, firstInstant.plus(Duration.standardSeconds(10)))(uri)
+
+    Mockito.verify(fetcher, VerificationModeFactory.times(1)).fetchRepo(uri)
+    errors.map(_.message).head should include("Connection refused")
+    RepoFailures.all(uri).failures should be(1)
+
+    repoService.visitRepo(false, firstInstant.plus(Duration.standardMinutes(2)))(uri)
+    Mockito.verify(fetcher, VerificationModeFactory.times(2)).fetchRepo(uri)
+    RepoFailures.all(uri).failures should be(2)
+  }
+
+  test("should fetch an unreachable repository when forced, and forget its failures once it is back") {
+    val uri = new URI("http://foo.bar/bla")
+    Mockito.when(fetcher.fetchRepo(uri)).thenReturn(Seq(ConnectionError(uri, "Connection refused")))
+
+    val firstInstant = Instant.now()
+    repoService.visitRepo(false, firstInstant)(uri)
+
+    Mockito.when(fetcher.fetchRepo(uri)).thenReturn(Seq())
+    repoService.visitRepo(true, firstInstant.plus(1000))(uri) should be(Seq())
+
+    Mockito.verify(fetcher, VerificationModeFactory.times(2)).fetchRepo(uri)
+    RepoFailures.all should be(empty)
+  }
+
   test("should fetch TA certificate if URI was never visited") {
     val uri = new URI("http://foo.bar/bla.cer")
 
@@ -89,6 +155,19 @@ class RepoServiceSpec extends FunSuite with Matchers with BeforeAndAfterEach wit
     Mockito.verify(fetcher).fetchTrustAnchorCertificate(uri)
   }
 
+  test("should not fetch anything when working from the cache only") {
+    val cacheOnlyService = new RepoService(fetcher, cacheOnly = true)
+    val uri = new URI("http://foo.bar/bla")
+    val taUri = new URI("http://foo.bar/bla.cer")
+
+    cacheOnlyService.visitRepo(true, Instant.now())(uri) should be(Seq())
+    cacheOnlyService.visitTrustAnchorCertificate(taUri)
+
+    Mockito.verify(fetcher, Mockito.never()).fetchRepo(uri)
+    Mockito.verify(fetcher, Mockito.never()).fetchTrustAnchorCertificate(taUri)
+    Mockito.verify(fetcher).cachedTrustAnchorCertificate(taUri)
+  }
+
   test("fetch time should be recent") {
     val minuteAgo: Instant = Instant.now().minus(Duration.standardMinutes(1))
     val twoMinutes: Duration = Duration.standardMinutes(2)
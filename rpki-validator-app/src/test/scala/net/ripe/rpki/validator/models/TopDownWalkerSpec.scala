@@ -60,7 +60,9 @@ import org.scalatest.mock.MockitoSugar
 import scala.util.Random
 
 @org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
-class TopDownWalkerSpec extends ValidatorTestCase with BeforeAndAfterEach with Hashing with MockitoSugar {
+class TopDownWalkerSpec(storage: Storage) extends ValidatorTestCase with BeforeAndAfterEach with Hashing with MockitoSugar {
+
+  def this() = this(new CacheStore(DataSources.InMemoryDataSource))
 
   private val REPO_LOCATION: URI = URI.create("rsync://foo.host/bar/")
   private val RRDP_NOTIFICATION_LOCATION: URI = URI.create("http://foo.host/bar/notification.xml")
@@ -82,7 +84,6 @@ class TopDownWalkerSpec extends ValidatorTestCase with BeforeAndAfterEach with H
 
   private val DEFAULT_MANIFEST_NUMBER: BigInteger = BigInteger.valueOf(68)
 
-  private val storage = new CacheStore(DataSources.InMemoryDataSource)
   private var rootResourceCertificate: X509ResourceCertificate = _
   private var taContext: CertificateRepositoryObjectValidationContext = _
   private var taCrl: X509Crl = _
@@ -0,0 +1,92 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.models
+
+import java.net.URI
+import java.util.Collections
+
+import net.ripe.ipresource.IpRange
+import net.ripe.rpki.commons.crypto.ValidityPeriod
+import net.ripe.rpki.commons.crypto.cms.roa.{RoaCmsObjectMother, RoaPrefix}
+import net.ripe.rpki.commons.crypto.crl.X509Crl
+import net.ripe.rpki.commons.validation.ValidationCheck
+import net.ripe.rpki.validator.config.ApplicationOptions
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import net.ripe.rpki.validator.testing.TestingObjectMother
+import org.joda.time.DateTime
+import org.mockito.Mockito.when
+import org.scalatest.mock.MockitoSugar
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class TrustAnchorsTest extends ValidatorTestCase with MockitoSugar {
+
+  val now = new DateTime(2016, 6, 1, 12, 0, 0, 0)
+  val latest = now.plus(ApplicationOptions.validationInterval.toMillis)
+  val earliest = now.plus(ApplicationOptions.validationIntervalMin.toMillis)
+
+  def roaValidUntil(notValidAfter: DateTime) = {
+    val prefixes = Collections.singletonList(new RoaPrefix(IpRange.parse("10.0.0.0/8"), 24))
+    val roa = RoaCmsObjectMother.getRoaCms(prefixes, new ValidityPeriod(now.minusDays(1), notValidAfter), TestingObjectMother.ASN1)
+    ValidObject("roa", URI.create("rsync://example.com/roa.roa"), Some(Array[Byte](1)), Set.empty[ValidationCheck], roa)
+  }
+
+  def crlUpdatedAt(nextUpdate: DateTime) = {
+    val crl = mock[X509Crl]
+    when(crl.getNextUpdateTime).thenReturn(nextUpdate)
+    ValidObject("crl", URI.create("rsync://example.com/ca.crl"), Some(Array[Byte](2)), Set.empty[ValidationCheck], crl)
+  }
+
+  test("Should validate again after the validation interval when nothing changes before") {
+    TrustAnchors.nextValidation(now, Seq(roaValidUntil(now.plusDays(30)))) should equal(latest)
+  }
+
+  test("Should validate again when the first object expires or is due to be updated") {
+    val nextUpdate = now.plusMinutes(5)
+    TrustAnchors.nextValidation(now, Seq(roaValidUntil(now.plusMinutes(7)), crlUpdatedAt(nextUpdate))) should equal(nextUpdate)
+  }
+
+  test("Should validate again after the validation interval when only repositories are due to be fetched") {
+    TrustAnchors.nextValidation(now, Seq(crlUpdatedAt(now.plusHours(1)))) should equal(latest)
+  }
+
+  test("Should neither validate again sooner than the minimum interval nor because of what expired already") {
+    TrustAnchors.nextValidation(now, Seq(crlUpdatedAt(now.plusSeconds(1)))) should equal(earliest)
+    TrustAnchors.nextValidation(now, Seq(crlUpdatedAt(now.minusHours(1)))) should equal(latest)
+  }
+
+  test("Should keep the next validation time when finishing processing") {
+    val ta = TestingObjectMother.TA.finishProcessing(scalaz.Success(Seq(crlUpdatedAt(new DateTime().plusMinutes(3)))))
+
+    ta.status match {
+      case Idle(nextUpdate, None) => nextUpdate.isAfter(new DateTime().plusMinutes(2)) should be(true)
+      case other => fail(s"Unexpected status $other")
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.models
+
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.joda.time.{DateTime, DateTimeUtils}
+import org.scalatest.BeforeAndAfterAll
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class ValidationSchedulerTest extends ValidatorTestCase with BeforeAndAfterAll {
+
+  val timer = Executors.newSingleThreadScheduledExecutor()
+
+  // the timer runs on the real clock
+  override def beforeAll() = DateTimeUtils.setCurrentMillisSystem()
+
+  override def afterAll() = timer.shutdownNow()
+
+  test("Should validate the trust anchors that are due right away") {
+    var validated = List[Seq[String]]()
+    val due = Seq("ripe" -> new DateTime().minusMinutes(1), "arin" -> new DateTime().plusHours(1))
+    val scheduler = new ValidationScheduler(() => due, names => validated :+= names, timer)
+
+    scheduler.reschedule()
+
+    validated should be(List(Seq("ripe")))
+    scheduler.nextValidation should be(Some(due(1)._2))
+  }
+
+  test("Should validate a trust anchor when it becomes due, without polling") {
+    val validated = new CountDownLatch(1)
+    val dueAt = new DateTime().plusMillis(200)
+    @volatile var due = Seq("ripe" -> dueAt)
+    var calls = 0
+    val scheduler = new ValidationScheduler(() => { calls += 1; due }, { names =>
+      names should be(Seq("ripe"))
+      due = Seq()
+      validated.countDown()
+    }, timer)
+
+    scheduler.reschedule()
+
+    validated.await(5, TimeUnit.SECONDS) should be(true)
+    new DateTime().isBefore(dueAt) should be(false)
+    calls should be(2)
+    scheduler.nextValidation should be(None)
+  }
+
+  test("Should move the timer when an earlier trust anchor comes in") {
+    @volatile var due = Seq("ripe" -> new DateTime().plusHours(1))
+    val scheduler = new ValidationScheduler(() => due, _ => (), timer)
+    scheduler.reschedule()
+
+    val earlier = new DateTime().plusMinutes(5)
+    due = due :+ ("arin" -> earlier)
+    scheduler.reschedule()
+
+    scheduler.nextValidation should be(Some(earlier))
+  }
+}
@@ -36,7 +36,7 @@ import net.ripe.ipresource.IpResourceSet
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateTest
 import net.ripe.rpki.validator.config.ApplicationOptions
 import net.ripe.rpki.validator.fetchers.FetcherConfig
-import net.ripe.rpki.validator.store.{CacheStore, DataSources, HttpFetcherStore}
+import net.ripe.rpki.validator.store.{CacheStore, DataSources, InMemoryHttpFetcherStore}
 import net.ripe.rpki.validator.support.ValidatorTestCase
 import org.scalatest.mock.MockitoSugar
 
@@ -53,7 +53,7 @@ class RepoFetcherTest extends ValidatorTestCase with MockitoSugar {
 
   def inMemoryRepoFetcher(config: FetcherConfig) = {
     val dataSource = DataSources.InMemoryDataSource
-    new RepoFetcher(new CacheStore(dataSource), new Fetchers(new HttpFetcherStore(), config))
+    new RepoFetcher(new CacheStore(dataSource), new Fetchers(new InMemoryHttpFetcherStore(), config))
   }
 
   test("Should create different directories for different repo URLs") {
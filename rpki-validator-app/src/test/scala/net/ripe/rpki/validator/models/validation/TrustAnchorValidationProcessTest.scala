@@ -127,4 +127,26 @@ class TrustAnchorValidationProcessTest extends ValidatorTestCase with MockitoSug
     Mockito.verify(mockStore).storeCertificate(matchingCert)
   }
 
+  test("Should not touch the TA cert in the store when it did not change") {
+    when(mockStore.contains(taCertUri.toString, taValidatorProcess.stringify(matchingCert.hash))).thenReturn(true)
+    when(mockStore.getCertificates(taCertUri.toString)).thenReturn(Seq(matchingCert))
+    when(mockStore.getManifests(matchingCert.aki)).thenReturn(Seq())
+
+    taValidatorProcess.runProcess(false)
+
+    Mockito.verify(mockStore, Mockito.never()).delete(taCertUri)
+    Mockito.verify(mockStore, Mockito.never()).storeCertificate(matchingCert)
+  }
+
+  test("Should not touch the TA cert in the store when working from the cache only") {
+    when(mockRepoService.cacheOnly).thenReturn(true)
+    when(mockStore.getCertificates(taCertUri.toString)).thenReturn(Seq(matchingCert))
+    when(mockStore.getManifests(matchingCert.aki)).thenReturn(Seq())
+
+    taValidatorProcess.runProcess(false)
+
+    Mockito.verify(mockStore, Mockito.never()).delete(taCertUri)
+    Mockito.verify(mockStore, Mockito.never()).storeCertificate(matchingCert)
+  }
+
 }
@@ -74,6 +74,16 @@ class CacheStoreTest extends ValidatorTestCase with BeforeAndAfter with Hashing
     obj.head.hash should be(certificate.hash)
   }
 
+  test("Tell whether an object is stored under a URL") {
+    val certificate = CertificateObject(url = "rsync://bla", decoded = testCertificate)
+
+    store.storeCertificate(certificate)
+
+    store.contains("rsync://bla", stringify(certificate.hash)) should be(true)
+    store.contains("rsync://other", stringify(certificate.hash)) should be(false)
+    store.contains("rsync://bla", "00") should be(false)
+  }
+
   test("Store a certificate and get it by URL") {
     val certificate = CertificateObject(url = "rsync://bla", decoded = testCertificate)
 
@@ -222,6 +232,35 @@ class CacheStoreTest extends ValidatorTestCase with BeforeAndAfter with Hashing
     store.getObjects(stringify(certificate.hash)) should be(empty)
   }
 
+  test("Delete old objects in batches and report what was reclaimed") {
+    val batchedStore = new CacheStore(memoryDataSource) {
+      override val collectorBatchSize = 1
+    }
+    val roa = RoaObject(url = "rsync://bla.roa", decoded = testRoa)
+    val certificate = CertificateObject(url = "rsync://bla.cer", decoded = testCertificate)
+    val crl = CrlObject(url = "rsync://bla.crl", decoded = testCrl)
+    batchedStore.storeRoa(roa)
+    batchedStore.storeCertificate(certificate)
+    batchedStore.storeCrl(crl)
+    batchedStore.storeCrl(crl.copy(url = "rsync://other.crl"))
+
+    val timeInThePast = Instant.now.minus(store.oldObjectsDeletionDelay.toMillis + 1)
+    batchedStore.updateValidationTimestamp(Seq(roa.hash, certificate.hash, crl.hash), timeInThePast)
+
+    val collected = batchedStore.clearObjects(Instant.now)
+
+    collected should be(CollectedGarbage(objects = 3, urls = 4, bytes = roa.encoded.length + certificate.encoded.length + crl.encoded.length))
+    batchedStore.getAllObjects should be(empty)
+  }
+
+  test("Compress the cache tables") {
+    val roa = RoaObject(url = "rsync://bla.roa", decoded = testRoa)
+    store.storeRoa(roa)
+    store.delete(new URI(roa.url))
+
+    store.compress() should be >= 0L
+  }
+
   test("Should return both objects and certificates matching the url") {
     val myUrl = "rsync://bla"
     val certificate = CertificateObject(url = myUrl, decoded = testCertificate)
@@ -270,4 +309,48 @@ class CacheStoreTest extends ValidatorTestCase with BeforeAndAfter with Hashing
 
   }
 
+  test("Store the content of an object published at several URLs only once") {
+    val roa1 = RoaObject(url = "rsync://bla/1.roa", decoded = testRoa)
+    val roa2 = RoaObject(url = "rsync://bla/2.roa", decoded = testRoa)
+    store.storeRoa(roa1)
+    store.storeRoa(roa2)
+
+    store.getObjects(stringify(roa1.hash)).map(_.url).toSet should be(Set(roa1.url, roa2.url))
+    blobCount should be(1)
+  }
+
+  test("Garbage collect the content when the last URL referring to it is deleted") {
+    val roa1 = RoaObject(url = "rsync://bla/1.roa", decoded = testRoa)
+    val roa2 = RoaObject(url = "rsync://bla/2.roa", decoded = testRoa)
+    store.storeRoa(roa1)
+    store.storeRoa(roa2)
+
+    store.delete(roa1.url, stringify(roa1.hash))
+    store.getObjects(stringify(roa1.hash)).map(_.url) should be(Seq(roa2.url))
+    blobCount should be(1)
+
+    store.delete(new URI(roa2.url))
+    store.getObjects(stringify(roa1.hash)) should be(empty)
+    blobCount should be(0)
+  }
+
+  test("Should clean outdated objects at several URLs at once and keep the shared content") {
+    val mft1 = ManifestObject(url = "rsync://bla/a.mft", decoded = testManifest)
+    val mft2 = ManifestObject(url = "rsync://bla/a.mft", decoded = testManifest1)
+    val mft3 = ManifestObject(url = "rsync://bla/b.mft", decoded = testManifest1)
+    val roa = RoaObject(url = "rsync://bla/c.roa", decoded = testRoa)
+    Seq(mft1, mft2, mft3).foreach(store.storeManifest)
+    store.storeRoa(roa)
+
+    store.cleanOutdated(Seq((new URI(mft1.url), mft1.hash), (new URI(mft3.url), mft3.hash), (new URI(roa.url), roa.hash)))
+
+    store.getManifests(mft1.aki).map(m => (m.url, stringify(m.hash))).toSet should be(
+      Set((mft1.url, stringify(mft1.hash)), (mft3.url, stringify(mft3.hash))))
+    store.getObjects(stringify(roa.hash)).map(_.url) should be(Seq(roa.url))
+    blobCount should be(3)
+  }
+
+  private def blobCount: Int =
+    store.template.queryForObject("SELECT COUNT(1) FROM object_blobs", new java.util.HashMap[String, Object](), classOf[Integer])
+
 }
@@ -0,0 +1,107 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.net.URI
+
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.joda.time.{Duration, Instant}
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class FetchIntervalsTest extends ValidatorTestCase {
+
+  private val uri = new URI("rsync://host/repo/")
+
+  private def intervals = new FetchIntervals(_ =>
+    IntervalBounds(Duration.standardMinutes(2), Duration.standardMinutes(10), Duration.standardMinutes(60)))
+
+  test("Should start with the initial interval") {
+    intervals.interval(uri, Instant.now) should be(Duration.standardMinutes(10))
+  }
+
+  test("Should fetch more often while a repository keeps changing, but not more than the minimum") {
+    val i = intervals
+    i.fetched(uri, changes = 3)
+    i.interval(uri, Instant.now) should be(Duration.standardMinutes(5))
+    i.fetched(uri, changes = 1)
+    i.fetched(uri, changes = 1)
+    i.interval(uri, Instant.now) should be(Duration.standardMinutes(2))
+  }
+
+  test("Should fetch less often while a repository doesn't change, but not less than the maximum") {
+    val i = intervals
+    i.fetched(uri, changes = 0)
+    i.interval(uri, Instant.now) should be(Duration.standardMinutes(15))
+    (1 to 10).foreach(_ => i.fetched(uri, changes = 0))
+    i.interval(uri, Instant.now) should be(Duration.standardMinutes(60))
+  }
+
+  test("Should fetch before the earliest next update that is expected") {
+    val i = intervals
+    val lastFetch = Instant.now
+    i.expectUpdate(uri, lastFetch.plus(Duration.standardMinutes(8)))
+    i.expectUpdate(uri, lastFetch.plus(Duration.standardMinutes(30)))
+
+    i.interval(uri, lastFetch) should be(Duration.standardMinutes(6))
+  }
+
+  test("Should not fetch more often than the minimum for an update that is imminent, and ignore past ones") {
+    val i = intervals
+    val lastFetch = Instant.now
+    i.expectUpdate(uri, lastFetch.minus(Duration.standardMinutes(8)))
+    i.interval(uri, lastFetch) should be(Duration.standardMinutes(10))
+
+    i.expectUpdate(uri, lastFetch.plus(Duration.standardMinutes(1)))
+    i.interval(uri, lastFetch) should be(Duration.standardMinutes(2))
+  }
+
+  test("Should forget the expected updates after a fetch") {
+    val i = intervals
+    i.expectUpdate(uri, Instant.now.plus(Duration.standardMinutes(4)))
+    i.fetched(uri, changes = 1)
+
+    i.interval(uri, Instant.now) should be(Duration.standardMinutes(5))
+  }
+
+  test("Should learn for every publication point in a module from the changes directly in it") {
+    val i = intervals
+    val module = new URI("rsync://host/repo/")
+    val busy = new URI("rsync://host/repo/busy/")
+    val quiet = new URI("rsync://host/repo/busy/quiet/")
+    i.interval(busy, Instant.now)
+    i.interval(quiet, Instant.now)
+
+    (1 to 3).foreach(_ => i.fetchedWithin(module, Set(busy)))
+
+    i.interval(busy, Instant.now) should be(Duration.standardMinutes(2))
+    i.interval(quiet, Instant.now) should be(Duration.standardMinutes(33).plus(Duration.standardSeconds(45)))
+    i.interval(new URI("rsync://host/other/"), Instant.now) should be(Duration.standardMinutes(10))
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.math.BigInteger
+import java.net.URI
+
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCmsTest
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCmsTest
+import net.ripe.rpki.commons.crypto.crl.X509CrlTest
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateTest
+import net.ripe.rpki.validator.models.validation._
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.joda.time.Instant
+import org.scalatest.BeforeAndAfter
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class InMemoryStoreTest extends ValidatorTestCase with BeforeAndAfter with Hashing {
+
+  private val store = new InMemoryStore
+
+  val testCrl = X509CrlTest.createCrl
+  val testManifest = ManifestCmsTest.getRootManifestCms
+  val testManifest1 = ManifestCmsTest.getRootManifestBuilder.withManifestNumber(new BigInteger("222")).
+    build(ManifestCmsTest.MANIFEST_KEY_PAIR.getPrivate)
+  val testRoa = RoaCmsTest.getRoaCms
+  val testCertificate = X509ResourceCertificateTest.createSelfSignedCaResourceCertificate
+
+  before {
+    store.clear()
+  }
+
+  test("Store a certificate and get it by hash and by URL") {
+    val certificate = CertificateObject(url = "rsync://bla", decoded = testCertificate)
+
+    store.storeCertificate(certificate)
+    store.storeCertificate(certificate)
+
+    store.getObjects(stringify(certificate.hash)) should be(Seq(certificate))
+    store.getCertificates("rsync://bla") should be(Seq(certificate))
+    store.getCertificates("rsync://other") should be(empty)
+    store.contains("rsync://bla", stringify(certificate.hash)) should be(true)
+    store.contains("rsync://other", stringify(certificate.hash)) should be(false)
+  }
+
+  test("Store manifests and get them by AKI") {
+    val mft1 = ManifestObject(url = "rsync://bla.mft", decoded = testManifest)
+    val mft2 = ManifestObject(url = "rsync://bla.mft", decoded = testManifest1)
+    store.storeManifest(mft1)
+    store.storeManifest(mft2)
+    store.storeCrl(CrlObject(url = "rsync://bla.crl", decoded = testCrl))
+
+    store.getManifests(mft1.aki).map(_.hash.toSeq).toSet should be(Set(mft1.hash.toSeq, mft2.hash.toSeq))
+  }
+
+  test("Store the content of an object published at several URLs only once") {
+    val roa1 = RoaObject(url = "rsync://bla/1.roa", decoded = testRoa)
+    val roa2 = RoaObject(url = "rsync://bla/2.roa", decoded = testRoa)
+    store.storeRoa(roa1)
+    store.storeRoa(roa2)
+
+    store.getObjects(stringify(roa1.hash)).map(_.url).toSet should be(Set(roa1.url, roa2.url))
+    store.getAllObjects should have size 2
+
+    store.delete(roa1.url, stringify(roa1.hash))
+    store.getObjects(stringify(roa1.hash)).map(_.url) should be(Seq(roa2.url))
+
+    store.delete(new URI(roa2.url))
+    store.getObjects(stringify(roa1.hash)) should be(empty)
+    store.getAllObjects should be(empty)
+  }
+
+  test("Update validation timestamp") {
+    val roa = RoaObject(url = "rsync://bla.roa", decoded = testRoa)
+    store.storeRoa(roa)
+
+    val newTime = Instant.now
+    store.updateValidationTimestamp(Seq(roa.hash), newTime)
+
+    store.getObjects(stringify(roa.hash)).head.validationTime should be(Some(newTime))
+  }
+
+  test("Should clean outdated objects and keep the shared content") {
+    val mft1 = ManifestObject(url = "rsync://bla/a.mft", decoded = testManifest)
+    val mft2 = ManifestObject(url = "rsync://bla/a.mft", decoded = testManifest1)
+    val mft3 = ManifestObject(url = "rsync://bla/b.mft", decoded = testManifest1)
+    val roa = RoaObject(url = "rsync://bla/c.roa", decoded = testRoa)
+    Seq(mft1, mft2, mft3).foreach(store.storeManifest)
+    store.storeRoa(roa)
+
+    store.cleanOutdated(Seq((new URI(mft1.url), mft1.hash), (new URI(mft3.url), mft3.hash), (new URI(roa.url), roa.hash)))
+
+    store.getManifests(mft1.aki).map(m => (m.url, stringify(m.hash))).toSet should be(
+      Set((mft1.url, stringify(mft1.hash)), (mft3.url, stringify(mft3.hash))))
+    store.getObjects(stringify(roa.hash)).map(_.url) should be(Seq(roa.url))
+  }
+
+  test("Delete old objects and objects never validated") {
+    val roa = RoaObject(url = "rsync://bla.roa", decoded = testRoa)
+    val certificate = CertificateObject(url = "rsync://bla.cer", decoded = testCertificate)
+    val crl = CrlObject(url = "rsync://bla.crl", decoded = testCrl)
+    store.storeRoa(roa)
+    store.storeCertificate(certificate)
+    store.storeCrl(crl)
+    store.storeCrl(crl.copy(url = "rsync://other.crl"))
+
+    val now = Instant.now
+    store.updateValidationTimestamp(Seq(roa.hash, crl.hash), now.minus(store.oldObjectsDeletionDelay.toMillis + 1))
+
+    store.clearObjects(now) should be(CollectedGarbage(objects = 2, urls = 3, bytes = roa.encoded.length + crl.encoded.length))
+    store.getAllObjects.map(_.url) should be(Seq(certificate.url))
+
+    store.clearObjects(now.plus(1000000 + store.bogusObjectsDeletionDelay.toMillis)).objects should be(1)
+    store.getAllObjects should be(empty)
+    store.getCertificates(certificate.url) should be(empty)
+  }
+
+}
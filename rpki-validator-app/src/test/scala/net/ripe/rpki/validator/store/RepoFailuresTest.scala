@@ -0,0 +1,74 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.store
+
+import java.net.URI
+
+import net.ripe.rpki.validator.support.ValidatorTestCase
+import org.joda.time.{Duration, Instant}
+
+@org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class RepoFailuresTest extends ValidatorTestCase {
+
+  private val uri = new URI("rsync://host/repo/")
+  private val now = Instant.now
+
+  private def failures = new RepoFailures(Duration.standardMinutes(1), Duration.standardMinutes(10))
+
+  test("Should back off exponentially up to the maximum") {
+    val f = failures
+    f.failed(uri, "refused", now).retryAt should be(now.plus(Duration.standardMinutes(1)))
+    f.failed(uri, "refused", now).retryAt should be(now.plus(Duration.standardMinutes(2)))
+    f.failed(uri, "refused", now).retryAt should be(now.plus(Duration.standardMinutes(4)))
+    f.failed(uri, "refused", now).retryAt should be(now.plus(Duration.standardMinutes(8)))
+    f.failed(uri, "refused", now).retryAt should be(now.plus(Duration.standardMinutes(10)))
+    (1 to 100).foreach(_ => f.failed(uri, "refused", now))
+    f.all(uri).retryAt should be(now.plus(Duration.standardMinutes(10)))
+  }
+
+  test("Should keep the circuit open until the backoff is over") {
+    val f = failures
+    f.failed(uri, "refused", now)
+
+    f.openCircuit(uri, now.plus(Duration.standardSeconds(59))).map(_.message) should be(Some("refused"))
+    f.openCircuit(uri, now.plus(Duration.standardMinutes(1))) should be(None)
+    f.openCircuit(new URI("rsync://other/repo/"), now) should be(None)
+  }
+
+  test("Should close the circuit after a success") {
+    val f = failures
+    f.failed(uri, "refused", now)
+    f.failed(uri, "refused", now)
+    f.succeeded(uri)
+
+    f.openCircuit(uri, now) should be(None)
+    f.failed(uri, "refused", now).failures should be(1)
+  }
+}
@@ -65,4 +65,32 @@ class RepoServiceStoreTest extends ValidatorTestCase with BeforeAndAfter {
     RepoServiceStore.getLastFetchTime("rsync://host1/b/x/y") should be(t3)
   }
 
+  test("Should only take the fetch times of the URI itself and its ancestors") {
+    RepoServiceStore.reset()
+    val t0 = new Instant()
+    val t1 = t0.plus(10000L)
+
+    RepoServiceStore.updateLastFetchTime("rsync://host/a/", t1)
+    RepoServiceStore.updateLastFetchTime("rsync://host/", t0)
+
+    RepoServiceStore.getLastFetchTime("rsync://host/a/b/c/") should be(t1)
+    RepoServiceStore.getLastFetchTime("rsync://host/ab/") should be(t0)
+    RepoServiceStore.getLastFetchTime("rsync://host/") should be(t0)
+    RepoServiceStore.getLastFetchTime("http://host/a/").getMillis should be(0)
+    RepoServiceStore.getLastFetchTime("rsync://other/a/").getMillis should be(0)
+  }
+
+  test("Should keep the fetch times of repositories updated concurrently") {
+    RepoServiceStore.reset()
+    val t = new Instant()
+
+    (1 to 1000).par.foreach { i =>
+      RepoServiceStore.updateLastFetchTime(s"rsync://host/repo/${i % 10}/$i/", t.plus(i))
+    }
+
+    (1 to 1000).foreach { i =>
+      RepoServiceStore.getLastFetchTime(s"rsync://host/repo/${i % 10}/$i/x") should be(t.plus(i))
+    }
+  }
+
 }
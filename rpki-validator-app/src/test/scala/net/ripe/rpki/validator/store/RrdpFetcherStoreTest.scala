@@ -31,13 +31,14 @@ package net.ripe.rpki.validator.store
 
 import java.net.URI
 
+import net.ripe.rpki.validator.config.HttpValidators
 import net.ripe.rpki.validator.support.ValidatorTestCase
 import org.scalatest.BeforeAndAfter
 
 @org.junit.runner.RunWith(classOf[org.scalatest.junit.JUnitRunner])
 class RrdpFetcherStoreTest extends ValidatorTestCase with BeforeAndAfter {
 
-  val store = new HttpFetcherStore()
+  val store = new InMemoryHttpFetcherStore()
 
   before {
     store.clear()
@@ -76,4 +77,78 @@ class RrdpFetcherStoreTest extends ValidatorTestCase with BeforeAndAfter {
     store.getSerial(url, sessionId) should be(Some(serial2))
   }
 
+  test("Keep the serial in the database of the object cache") {
+    val cacheStore = new CacheStore(DataSources.InMemoryDataSource)
+    cacheStore.clear()
+    val url = new URI("http://bla.bla")
+    val sessionId = "aec41310-67e1-429b-9d1b-df30961e9932"
+
+    new DurableHttpFetcherStore(cacheStore).storeSerial(url, sessionId, BigInt(100))
+    new DurableHttpFetcherStore(cacheStore).storeSerial(url, sessionId, BigInt(101))
+
+    val restarted = new DurableHttpFetcherStore(cacheStore)
+    restarted.getSerial(url, sessionId) should be(Some(BigInt(101)))
+    restarted.getSerial(url, "another-session") should be(None)
+
+    cacheStore.clear()
+    restarted.getSerial(url, sessionId) should be(None)
+  }
+
+  test("Keep the validators of the last notification file in the database of the object cache") {
+    val cacheStore = new CacheStore(DataSources.InMemoryDataSource)
+    cacheStore.clear()
+    val url = new URI("http://bla.bla")
+
+    new DurableHttpFetcherStore(cacheStore).storeValidators(url, HttpValidators(Some("\"abc\""), None))
+    new DurableHttpFetcherStore(cacheStore).storeValidators(url, HttpValidators(Some("\"def\""), Some("Wed, 21 Oct 2015 07:28:00 GMT")))
+
+    new DurableHttpFetcherStore(cacheStore).getValidators(url) should be(Some(HttpValidators(Some("\"def\""), Some("Wed, 21 Oct 2015 07:28:00 GMT"))))
+    new DurableHttpFetcherStore(cacheStore).getValidators(new URI("http://other")) should be(None)
+  }
+
+  test("Store the serial and the validators of a notification file together") {
+    val cacheStore = new CacheStore(DataSources.InMemoryDataSource)
+    cacheStore.clear()
+    val url = new URI("http://bla.bla")
+    val sessionId = "aec41310-67e1-429b-9d1b-df30961e9932"
+    val durable = new DurableHttpFetcherStore(cacheStore)
+
+    durable.storeNotification(url, Some((sessionId, BigInt(5))), Some(HttpValidators(Some("\"abc\""), None)))
+    durable.storeNotification(url, Some((sessionId, BigInt(6))), Some(HttpValidators(Some("\"def\""), None)))
+
+    durable.getSerial(url, sessionId) should be(Some(BigInt(6)))
+    durable.getValidators(url) should be(Some(HttpValidators(Some("\"def\""), None)))
+  }
+
+  test("Roll back the serial when the validators cannot be stored") {
+    val cacheStore = new CacheStore(DataSources.InMemoryDataSource)
+    cacheStore.clear()
+    val url = new URI("http://bla.bla")
+    val sessionId = "aec41310-67e1-429b-9d1b-df30961e9932"
+    val durable = new DurableHttpFetcherStore(cacheStore)
+    durable.storeSerial(url, sessionId, BigInt(5))
+
+    intercept[Exception] {
+      durable.storeNotification(url, Some((sessionId, BigInt(6))), Some(HttpValidators(Some("x" * 2000), None)))
+    }
+
+    durable.getSerial(url, sessionId) should be(Some(BigInt(5)))
+  }
+
+  test("Keep the validators and hash of single objects in the database of the object cache") {
+    val cacheStore = new CacheStore(DataSources.InMemoryDataSource)
+    cacheStore.clear()
+    val url = new URI("http://bla.bla/ta.cer")
+
+    new DurableHttpFetcherStore(cacheStore).storeObjectValidators(url, HttpValidators(Some("\"abc\""), None), "aa")
+    new DurableHttpFetcherStore(cacheStore).storeObjectValidators(url, HttpValidators(None, Some("Wed, 21 Oct 2015 07:28:00 GMT")), "bb")
+
+    val restarted = new DurableHttpFetcherStore(cacheStore)
+    restarted.getObjectValidators(url) should be(Some((HttpValidators(None, Some("Wed, 21 Oct 2015 07:28:00 GMT")), "bb")))
+    restarted.getValidators(url) should be(None)
+
+    cacheStore.clear()
+    restarted.getObjectValidators(url) should be(None)
+  }
+
 }
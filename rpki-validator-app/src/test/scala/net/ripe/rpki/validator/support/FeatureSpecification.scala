@@ -67,5 +67,6 @@ abstract class FeatureSpecification extends ScalatraFeatureSpec with JunitLoggin
   addServlet(new RestApi {
     protected def getVrpObjects = ???
     protected def getCachedObjects = ???
+    protected def getRepositoryFailures = ???
   }, "/api/*")
 }
@@ -61,6 +61,7 @@ public class CommandLineOptions {
     private static final String ROA_EXPORT = "roa-export";
     private static final String PREFETCH = "prefetch";
     private static final String VERBOSE = "verbose";
+    private static final String IN_PROCESS_RSYNC = "in-process-rsync";
 
     private Options options = new Options();
 
@@ -78,6 +79,7 @@ public class CommandLineOptions {
     private boolean roaExportEnabled;
     private boolean verboseEnabled;
     private boolean topDownValidationEnabled;
+    private boolean inProcessRsyncEnabled;
 
 
     public CommandLineOptions() {
@@ -112,6 +114,7 @@ public class CommandLineOptions {
         options.addOption("o", OUTPUT_DIR, true, "Output directory for the results of top-down validation and the trust anchor file");
         options.addOption("r", ROA_EXPORT, true, "Export routing authorisation found in validated ROAs");
         options.addOption("v", VERBOSE, false, "Show all validation steps");
+        options.addOption(null, IN_PROCESS_RSYNC, false, "Fetch with the built-in rsync client instead of running the rsync program");
     }
 
     public void parse(String... args) throws ParseException {
@@ -145,6 +148,10 @@ public class CommandLineOptions {
             if (commandLine.hasOption(VERBOSE)) {
                 verboseEnabled = true;
             }
+
+            if (commandLine.hasOption(IN_PROCESS_RSYNC)) {
+                inProcessRsyncEnabled = true;
+            }
         }
     }
 
@@ -228,6 +235,10 @@ public class CommandLineOptions {
         return verboseEnabled;
     }
 
+    public boolean isInProcessRsyncEnabled() {
+        return inProcessRsyncEnabled;
+    }
+
     public boolean isTopDownValidationEnabled() {
         return topDownValidationEnabled;
     }
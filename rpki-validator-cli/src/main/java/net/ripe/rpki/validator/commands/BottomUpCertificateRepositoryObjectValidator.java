@@ -64,9 +64,13 @@ public class BottomUpCertificateRepositoryObjectValidator {
 
 
     public BottomUpCertificateRepositoryObjectValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, CertificateRepositoryObject startingPoint, URI startingPointUri) {
+        this(trustAnchors, startingPoint, startingPointUri, new Rsync());
+    }
+
+    public BottomUpCertificateRepositoryObjectValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, CertificateRepositoryObject startingPoint, URI startingPointUri, Rsync rsync) {
         chainBuildResultLogger = new ObjectFetcherResultLogger(false);
         tempDir = getUniqueTempDir();
-        wireUpFetcherForChainBuilding();
+        wireUpFetcherForChainBuilding(rsync);
         wireUpFetcherForValidation();
         cachingFetcher.updateCache(startingPointUri, startingPoint);
         singleObjectWalker = new SingleObjectWalker(startingPoint, startingPointUri, chainBuildFetcher, chainBuildResultLogger, validationFetcher);
@@ -96,8 +100,8 @@ public class BottomUpCertificateRepositoryObjectValidator {
         validationFetcher = cachingCertificateRepositoryObjectFetcher;
     }
 
-    private void wireUpFetcherForChainBuilding() {
-        CertificateRepositoryObjectFetcher rsyncCertificateRepositoryObjectFetcher = new RpkiRepositoryObjectFetcherAdapter(new RsyncRpkiRepositoryObjectFetcher(new Rsync(), new UriToFileMapper(tempDir)));
+    private void wireUpFetcherForChainBuilding(Rsync rsync) {
+        CertificateRepositoryObjectFetcher rsyncCertificateRepositoryObjectFetcher = new RpkiRepositoryObjectFetcherAdapter(new RsyncRpkiRepositoryObjectFetcher(rsync, new UriToFileMapper(tempDir)));
         CachingCertificateRepositoryObjectFetcher cachingCertificateRepositoryObjectFetcher = new CachingCertificateRepositoryObjectFetcher(rsyncCertificateRepositoryObjectFetcher);
         NotifyingCertificateRepositoryObjectFetcher notifyingCertificateRepositoryObjectFetcher = new NotifyingCertificateRepositoryObjectFetcher(cachingCertificateRepositoryObjectFetcher);
         notifyingCertificateRepositoryObjectFetcher.addCallback(chainBuildResultLogger);
@@ -46,7 +46,7 @@ public class BottomUpValidationCommand extends ValidationCommand {
     }
 
     public ValidationResult execute() {
-        BottomUpCertificateRepositoryObjectValidator validator = new BottomUpCertificateRepositoryObjectValidator(getTrustAnchors(), readCertificateRepositoryObject(inputFile), inputFile.toURI());
+        BottomUpCertificateRepositoryObjectValidator validator = new BottomUpCertificateRepositoryObjectValidator(getTrustAnchors(), readCertificateRepositoryObject(inputFile), inputFile.toURI(), createRsync());
         return validator.validate();
     }
 }
@@ -90,21 +90,30 @@ public class TopDownCertificateRepositoryValidator {
     private ValidationSummaryCollector validationSummaryCollector;
 
     public TopDownCertificateRepositoryValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, File outputDirectory) {
+        this(trustAnchors, outputDirectory, new Rsync());
+    }
+
+    public TopDownCertificateRepositoryValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, File outputDirectory, Rsync rsync) {
         Validate.notNull(trustAnchors);
         Validate.notNull(outputDirectory);
-        init(trustAnchors, outputDirectory, false, null);
+        init(trustAnchors, outputDirectory, false, null, rsync);
     }
 
     public TopDownCertificateRepositoryValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, File outputDirectory,
             File roaExportFile) {
+        this(trustAnchors, outputDirectory, roaExportFile, new Rsync());
+    }
+
+    public TopDownCertificateRepositoryValidator(List<CertificateRepositoryObjectValidationContext> trustAnchors, File outputDirectory,
+            File roaExportFile, Rsync rsync) {
         Validate.notNull(trustAnchors);
         Validate.notNull(outputDirectory);
         Validate.notNull(roaExportFile);
-        init(trustAnchors, outputDirectory, true, roaExportFile);
+        init(trustAnchors, outputDirectory, true, roaExportFile, rsync);
     }
 
     private void init(List<CertificateRepositoryObjectValidationContext> trustAnchors, File outputDirectory, boolean roaExportEnabled,
-            File roaExportFile) {
+            File roaExportFile, Rsync rsync) {
         this.trustAnchors = trustAnchors;
         this.outputDirectory = outputDirectory;
         this.roaExportFile = roaExportFile;
@@ -112,12 +121,12 @@ public class TopDownCertificateRepositoryValidator {
         if (roaExportEnabled) {
             roaExporterCallBack = new ValidatedRoaWriter();
         }
-        this.fetcher = createCertificateRepositoryObjectFetcher();
+        this.fetcher = createCertificateRepositoryObjectFetcher(rsync);
         this.topDownWalker = new TopDownWalker(fetcher);
     }
 
-    private CachingCertificateRepositoryObjectFetcher createCertificateRepositoryObjectFetcher() {
-        CertificateRepositoryObjectFetcher rsyncFetcher = new RpkiRepositoryObjectFetcherAdapter(new RsyncRpkiRepositoryObjectFetcher(new Rsync(), new UriToFileMapper(getUnvalidatedOutputDirectory())));
+    private CachingCertificateRepositoryObjectFetcher createCertificateRepositoryObjectFetcher(Rsync rsync) {
+        CertificateRepositoryObjectFetcher rsyncFetcher = new RpkiRepositoryObjectFetcherAdapter(new RsyncRpkiRepositoryObjectFetcher(rsync, new UriToFileMapper(getUnvalidatedOutputDirectory())));
 
         ValidatingCertificateRepositoryObjectFetcher validatingFetcher = new ValidatingCertificateRepositoryObjectFetcher(rsyncFetcher);
 
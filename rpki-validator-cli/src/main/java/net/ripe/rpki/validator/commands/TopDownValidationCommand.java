@@ -59,9 +59,9 @@ public class TopDownValidationCommand extends ValidationCommand {
         List<CertificateRepositoryObjectValidationContext> trustAnchors = getTrustAnchors();
         TopDownCertificateRepositoryValidator validator;
         if (roaExportEnabled) {
-            validator = new TopDownCertificateRepositoryValidator(trustAnchors, outputDir, roaExportFile);
+            validator = new TopDownCertificateRepositoryValidator(trustAnchors, outputDir, roaExportFile, createRsync());
         } else {
-            validator = new TopDownCertificateRepositoryValidator(trustAnchors, outputDir);
+            validator = new TopDownCertificateRepositoryValidator(trustAnchors, outputDir, createRsync());
         }
         validator.setPrefetchUris(prefetchUris);
         validator.prepare();
@@ -29,8 +29,10 @@
  */
 package net.ripe.rpki.validator.commands;
 
+import net.ripe.rpki.commons.rsync.Rsync;
 import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
 import net.ripe.rpki.validator.cli.CommandLineOptions;
+import net.ripe.rpki.validator.rsync.InProcessRsync;
 import net.ripe.rpki.validator.util.TrustAnchorExtractor;
 
 import java.util.ArrayList;
@@ -52,4 +54,8 @@ public abstract class ValidationCommand {
         trustAnchors.addAll(trustAnchorExtractor.extractTAS(options));
         return trustAnchors;
     }
+
+    protected Rsync createRsync() {
+        return options.isInProcessRsyncEnabled() ? new InProcessRsync() : new Rsync();
+    }
 }
@@ -0,0 +1,147 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import net.ripe.rpki.commons.rsync.Rsync;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Takes the place of {@link Rsync} without running the rsync program, the transfer is done by an
+ * {@link RsyncClient} in this process. Like the rsync program it returns 1 for options it does not
+ * support, and 10 when the transfer fails.
+ */
+public class InProcessRsync extends Rsync {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessRsync.class);
+
+    static final int SYNTAX_ERROR = 1;
+    static final int TRANSFER_ERROR = 10;
+
+    private final List<String> options = new ArrayList<String>();
+    private int timeoutInSeconds = DEFAULT_TIMEOUT_IN_SECONDS;
+
+    private boolean completed;
+    private int exitStatus;
+    private Exception exception;
+    private long startedAt;
+    private long finishedAt;
+
+    @Override
+    public void setTimeoutInSeconds(int timeoutInSeconds) {
+        super.setTimeoutInSeconds(timeoutInSeconds);
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    @Override
+    public void addOptions(String... options) {
+        super.addOptions(options);
+        this.options.addAll(Arrays.asList(options));
+    }
+
+    @Override
+    public void addOptions(Collection<String> options) {
+        super.addOptions(options);
+        this.options.addAll(options);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        options.clear();
+        completed = false;
+        exitStatus = 0;
+        exception = null;
+        startedAt = 0;
+        finishedAt = 0;
+    }
+
+    @Override
+    public int execute() {
+        startedAt = System.currentTimeMillis();
+        try {
+            RsyncClient.Statistics statistics = new RsyncClient(options, timeoutInSeconds).sync(URI.create(getSource()), new File(getDestination()));
+            LOG.debug("rsync " + getSource() + ": " + statistics);
+            exitStatus = 0;
+        } catch (IllegalArgumentException e) {
+            fail(SYNTAX_ERROR, e);
+        } catch (IOException e) {
+            fail(TRANSFER_ERROR, e);
+        } finally {
+            completed = true;
+            finishedAt = System.currentTimeMillis();
+        }
+        return exitStatus;
+    }
+
+    private void fail(int status, Exception e) {
+        LOG.error("rsync " + getSource() + " failed: " + e.getMessage());
+        exitStatus = status;
+        exception = e;
+    }
+
+    @Override
+    public String[] getErrorLines() {
+        return exception == null ? new String[0] : new String[] { String.valueOf(exception.getMessage()) };
+    }
+
+    @Override
+    public String[] getOutputLines() {
+        return new String[0];
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+    @Override
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public long elapsedTime() {
+        return finishedAt - startedAt;
+    }
+}
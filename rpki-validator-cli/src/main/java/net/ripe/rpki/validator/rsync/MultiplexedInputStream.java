@@ -0,0 +1,165 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the data the rsync server sends once it has started multiplexing, and takes the messages
+ * it sends in between out of the stream. Error messages are kept, so that they can be reported
+ * when the transfer is over.
+ */
+final class MultiplexedInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexedInputStream.class);
+
+    private static final int MPLEX_BASE = 7;
+
+    static final int MSG_DATA = 0;
+    static final int MSG_ERROR_XFER = 1;
+    static final int MSG_INFO = 2;
+    static final int MSG_ERROR = 3;
+    static final int MSG_WARNING = 4;
+    static final int MSG_ERROR_SOCKET = 5;
+    static final int MSG_LOG = 6;
+    static final int MSG_ERROR_UTF8 = 8;
+    static final int MSG_IO_ERROR = 22;
+    static final int MSG_ERROR_EXIT = 86;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DataInputStream in;
+    private final List<String> errors = new ArrayList<String>();
+    private int ioError;
+    private int remaining;
+
+    MultiplexedInputStream(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    int getIoError() {
+        return ioError;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextData()) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed in the middle of a message");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextData()) {
+            return -1;
+        }
+        int n = in.read(buffer, offset, Math.min(length, remaining));
+        if (n < 0) {
+            throw new EOFException("Connection closed in the middle of a message");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    private boolean nextData() throws IOException {
+        while (remaining == 0) {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            int header = first | (in.readUnsignedByte() << 8) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 24);
+            int tag = (header >>> 24) - MPLEX_BASE;
+            int length = header & 0xffffff;
+            if (tag == MSG_DATA) {
+                remaining = length;
+            } else if (tag < 0) {
+                throw new RsyncException("Unexpected data from the server, the stream is not multiplexed");
+            } else {
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                message(tag, payload);
+            }
+        }
+        return true;
+    }
+
+    private void message(int tag, byte[] payload) throws RsyncException {
+        String text = new String(payload, UTF8).trim();
+        switch (tag) {
+            case MSG_ERROR_XFER:
+            case MSG_ERROR:
+            case MSG_ERROR_SOCKET:
+            case MSG_ERROR_UTF8:
+                LOG.warn("rsync server: " + text);
+                errors.add(text);
+                break;
+            case MSG_INFO:
+            case MSG_LOG:
+                LOG.debug("rsync server: " + text);
+                break;
+            case MSG_WARNING:
+                LOG.warn("rsync server: " + text);
+                break;
+            case MSG_IO_ERROR:
+                if (payload.length == 4) {
+                    ioError |= (payload[0] & 0xff) | (payload[1] & 0xff) << 8 | (payload[2] & 0xff) << 16 | (payload[3] & 0xff) << 24;
+                }
+                break;
+            case MSG_ERROR_EXIT:
+                throw new RsyncException("The rsync server exited with an error" + (errors.isEmpty() ? "" : ": " + errors));
+            default:
+                // redo requests, statistics and the like are only sent with later protocol versions
+                break;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import org.bouncycastle.crypto.digests.MD4Digest;
+
+/**
+ * The checksums of rsync protocol 27: the rolling checksum and the MD4 strong checksum of a block,
+ * and the MD4 checksum of a whole file. The checksum seed chosen by the server is mixed into the
+ * strong checksums.
+ */
+final class RsyncChecksums {
+
+    static final int DIGEST_LENGTH = 16;
+
+    private RsyncChecksums() {
+    }
+
+    /**
+     * rsync sums the bytes as signed chars.
+     */
+    static int rolling(byte[] data, int offset, int length) {
+        int s1 = 0;
+        int s2 = 0;
+        for (int i = offset; i < offset + length; i++) {
+            s1 += data[i];
+            s2 += s1;
+        }
+        return (s1 & 0xffff) + (s2 << 16);
+    }
+
+    static byte[] block(byte[] data, int offset, int length, int seed) {
+        MD4Digest digest = new MD4Digest();
+        digest.update(data, offset, length);
+        if (seed != 0) {
+            digest.update(littleEndian(seed), 0, 4);
+        }
+        return result(digest);
+    }
+
+    static MD4Digest file(int seed) {
+        MD4Digest digest = new MD4Digest();
+        digest.update(littleEndian(seed), 0, 4);
+        return digest;
+    }
+
+    static byte[] result(MD4Digest digest) {
+        byte[] result = new byte[DIGEST_LENGTH];
+        digest.doFinal(result, 0);
+        return result;
+    }
+
+    private static byte[] littleEndian(int value) {
+        return new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+    }
+}
@@ -0,0 +1,720 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.bouncycastle.crypto.digests.MD4Digest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fetches files from an rsync daemon without running the rsync program, by speaking rsync protocol
+ * version 27 over the socket. The client only receives: it reads the file list, asks for the files
+ * that differ from the local copy by sending the checksums of the blocks of that copy, and rebuilds
+ * every file from the blocks the server matched and the literal data it sent. Files are checked
+ * against their MD4 checksum before they replace the local copy.
+ * <p/>
+ * The supported options are the ones of the rsync command line with the same meaning:
+ * --recursive, --delete, --times, --update, --copy-links and --checksum. With --checksum a file that
+ * exists locally is always compared block by block, rather than by its size and modification time.
+ * <p/>
+ * A client transfers one source at a time, {@link #abort()} stops the transfer from another thread.
+ */
+public class RsyncClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RsyncClient.class);
+
+    public static final int DEFAULT_PORT = 873;
+
+    static final int PROTOCOL_VERSION = 27;
+
+    static final String GREETING = "@RSYNCD: ";
+
+    private static final Set<String> SUPPORTED_OPTIONS = new HashSet<String>(Arrays.asList(
+            "--recursive", "--delete", "--times", "--update", "--copy-links", "--checksum"));
+
+    // file list flags of protocol 27
+    static final int FLAG_TOP_DIR = 0x01;
+    static final int FLAG_SAME_MODE = 0x02;
+    static final int FLAG_SAME_NAME = 0x20;
+    static final int FLAG_LONG_NAME = 0x40;
+    static final int FLAG_SAME_TIME = 0x80;
+
+    static final int S_IFMT = 0170000;
+    static final int S_IFDIR = 0040000;
+    static final int S_IFREG = 0100000;
+
+    static final int BLOCK_LENGTH = 700;
+    private static final int MAX_BLOCK_LENGTH = 1 << 17;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_NAME_LENGTH = 4096;
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final boolean recursive;
+    private final boolean delete;
+    private final boolean times;
+    private final boolean update;
+    private final boolean copyLinks;
+    private final boolean checksum;
+    private final int timeoutMillis;
+
+    private volatile Socket socket;
+    private volatile boolean aborted;
+
+    /**
+     * @param timeoutInSeconds the transfer fails when connecting or waiting for data takes longer than this,
+     *                         0 waits forever
+     */
+    public RsyncClient(Collection<String> options, int timeoutInSeconds) {
+        Validate.isTrue(timeoutInSeconds >= 0, "timeout must be non-negative");
+        for (String option : options) {
+            Validate.isTrue(SUPPORTED_OPTIONS.contains(option), "rsync option not supported in process: " + option);
+        }
+        this.recursive = options.contains("--recursive");
+        this.delete = options.contains("--delete");
+        this.times = options.contains("--times");
+        this.update = options.contains("--update");
+        this.copyLinks = options.contains("--copy-links");
+        this.checksum = options.contains("--checksum");
+        this.timeoutMillis = timeoutInSeconds * 1000;
+    }
+
+    public static boolean supports(String option) {
+        return SUPPORTED_OPTIONS.contains(option);
+    }
+
+    /**
+     * Brings the destination up to date with the source, like "rsync [options] source destination" would.
+     */
+    public Statistics sync(URI source, File destination) throws IOException {
+        Validate.isTrue("rsync".equalsIgnoreCase(source.getScheme()), "not an rsync URI: " + source);
+        // like the rsync program, the path is sent as it is written in the URI
+        String path = source.getRawPath();
+        Validate.isTrue(path != null && path.length() > 1, "no rsync module in " + source);
+        path = path.substring(1);
+        String module = path.contains("/") ? path.substring(0, path.indexOf('/')) : path;
+        int port = source.getPort() < 0 ? DEFAULT_PORT : source.getPort();
+
+        Socket s = new Socket();
+        socket = s;
+        try {
+            if (aborted) {
+                throw new RsyncException("Aborted");
+            }
+            s.connect(new InetSocketAddress(source.getHost(), port), timeoutMillis);
+            s.setSoTimeout(timeoutMillis);
+            return new Session(s, destination).run(module, path);
+        } catch (IOException e) {
+            if (aborted) {
+                throw new RsyncException("Aborted", e);
+            }
+            throw e;
+        } finally {
+            socket = null;
+            s.close();
+        }
+    }
+
+    /**
+     * Stops a running transfer, which then fails.
+     */
+    public void abort() {
+        aborted = true;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the rsync connection", e);
+            }
+        }
+    }
+
+    List<String> serverArguments(String path) {
+        List<String> arguments = new ArrayList<String>(Arrays.asList("--server", "--sender"));
+        String flags = (recursive ? "r" : "") + (times ? "t" : "") + (copyLinks ? "L" : "");
+        if (!flags.isEmpty()) {
+            arguments.add("-" + flags);
+        }
+        arguments.add(".");
+        arguments.add(path);
+        return arguments;
+    }
+
+    static int blockLength(long length) {
+        if (length <= (long) BLOCK_LENGTH * BLOCK_LENGTH) {
+            return BLOCK_LENGTH;
+        }
+        return (int) Math.min(MAX_BLOCK_LENGTH, (long) Math.sqrt(length) & ~7);
+    }
+
+    static final Comparator<FileEntry> FILE_LIST_ORDER = new Comparator<FileEntry>() {
+        @Override
+        public int compare(FileEntry a, FileEntry b) {
+            int n = Math.min(a.name.length, b.name.length);
+            for (int i = 0; i < n; i++) {
+                int d = (a.name[i] & 0xff) - (b.name[i] & 0xff);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return a.name.length - b.name.length;
+        }
+    };
+
+    static final class FileEntry {
+        final byte[] name;
+        final String path;
+        final long size;
+        final long modificationTime;
+        final int mode;
+        File target;
+
+        FileEntry(byte[] name, long size, long modificationTime, int mode) {
+            this.name = name;
+            this.path = new String(name, UTF8);
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.mode = mode;
+        }
+
+        boolean isDirectory() {
+            return (mode & S_IFMT) == S_IFDIR;
+        }
+
+        boolean isRegularFile() {
+            return (mode & S_IFMT) == S_IFREG;
+        }
+    }
+
+    public static final class Statistics {
+        private int files;
+        private int transferred;
+        private int deleted;
+        private long literalBytes;
+        private long matchedBytes;
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getTransferred() {
+            return transferred;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public long getLiteralBytes() {
+            return literalBytes;
+        }
+
+        public long getMatchedBytes() {
+            return matchedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return files + " files, " + transferred + " transferred, " + deleted + " deleted, "
+                    + literalBytes + " bytes sent literally, " + matchedBytes + " bytes matched locally";
+        }
+    }
+
+    /**
+     * One connection to the server. The requests for the files are written by a separate thread while the
+     * files are read, so that neither side can block the other when the socket buffers fill up.
+     */
+    private final class Session {
+        private final Socket socket;
+        private final File destination;
+        private final Statistics statistics = new Statistics();
+
+        private DataInputStream raw;
+        private MultiplexedInputStream multiplexed;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private int seed;
+
+        private volatile IOException generatorFailure;
+
+        Session(Socket socket, File destination) {
+            this.socket = socket;
+            this.destination = destination;
+        }
+
+        Statistics run(String module, String path) throws IOException {
+            raw = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+
+            handshake(module);
+            for (String argument : serverArguments(path)) {
+                writeLine(argument);
+            }
+            writeLine("");
+            out.flush();
+
+            seed = Integer.reverseBytes(raw.readInt());
+            multiplexed = new MultiplexedInputStream(raw);
+            in = new DataInputStream(multiplexed);
+
+            // no exclusions
+            writeInt(0);
+            out.flush();
+
+            try {
+                return transfer();
+            } catch (EOFException e) {
+                throw new RsyncException("The rsync server closed the connection" + reportedErrors(), e);
+            }
+        }
+
+        private void handshake(String module) throws IOException {
+            String greeting = readLine();
+            if (!greeting.startsWith(GREETING)) {
+                throw new RsyncException("Not an rsync server, it sent: " + greeting);
+            }
+            int version = leadingNumber(greeting.substring(GREETING.length()));
+            if (version < PROTOCOL_VERSION) {
+                throw new RsyncException("The rsync server speaks protocol version " + version + ", at least " + PROTOCOL_VERSION + " is needed");
+            }
+            writeLine(GREETING + PROTOCOL_VERSION + ".0");
+            writeLine(module);
+            out.flush();
+
+            while (true) {
+                String line = readLine();
+                if (line.startsWith(GREETING + "OK")) {
+                    return;
+                } else if (line.startsWith(GREETING + "AUTHREQD")) {
+                    throw new RsyncException("The rsync module " + module + " needs authentication");
+                } else if (line.startsWith(GREETING + "EXIT")) {
+                    throw new RsyncException("The rsync server ended the session");
+                } else if (line.startsWith("@ERROR")) {
+                    throw new RsyncException(line);
+                } else {
+                    LOG.debug("rsync server: " + line);
+                }
+            }
+        }
+
+        private Statistics transfer() throws IOException {
+            final List<FileEntry> files = readFileList();
+            int ioError = readInt();
+            statistics.files = files.size();
+
+            createDirectories(files);
+
+            final List<Integer> requested = new ArrayList<Integer>();
+            for (int i = 0; i < files.size(); i++) {
+                if (files.get(i).isRegularFile() && needsTransfer(files.get(i))) {
+                    requested.add(i);
+                }
+            }
+
+            Thread generator = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int ndx : requested) {
+                            writeInt(ndx);
+                            writeChecksums(files.get(ndx).target);
+                        }
+                        writeInt(-1);
+                        out.flush();
+                    } catch (IOException e) {
+                        generatorFailure = e;
+                        close();
+                    }
+                }
+            }, "rsync-generator");
+            generator.setDaemon(true);
+            generator.start();
+
+            List<Integer> redo = new ArrayList<Integer>();
+            try {
+                receiveFiles(files, requested, redo);
+            } catch (IOException e) {
+                // unblocks the generator when it is still writing
+                close();
+                join(generator);
+                throw generatorFailure != null ? generatorFailure : e;
+            }
+            join(generator);
+            if (generatorFailure != null) {
+                throw generatorFailure;
+            }
+
+            // the second phase asks once more for the files that came out wrong, this time as a whole
+            for (int ndx : redo) {
+                writeInt(ndx);
+                writeNullChecksums();
+            }
+            writeInt(-1);
+            out.flush();
+            List<Integer> failed = new ArrayList<Integer>();
+            receiveFiles(files, redo, failed);
+
+            // the totals the server counted, read and forgotten
+            readLongint();
+            readLongint();
+            readLongint();
+            writeInt(-1);
+            out.flush();
+
+            List<String> errors = new ArrayList<String>(multiplexed.getErrors());
+            for (int ndx : failed) {
+                errors.add("Checksum of " + files.get(ndx).path + " does not match after transfer");
+            }
+            ioError |= multiplexed.getIoError();
+
+            if (delete && recursive) {
+                if (ioError != 0 || !errors.isEmpty()) {
+                    LOG.warn("The rsync server reported errors, not deleting any files");
+                } else {
+                    deleteExtraneous(files);
+                }
+            }
+
+            if (!errors.isEmpty() || ioError != 0) {
+                throw new RsyncException("Not all files could be transferred" + (errors.isEmpty() ? "" : ": " + errors));
+            }
+            return statistics;
+        }
+
+        private List<FileEntry> readFileList() throws IOException {
+            List<FileEntry> files = new ArrayList<FileEntry>();
+            byte[] lastName = new byte[0];
+            long lastTime = 0;
+            int lastMode = 0;
+            int flags;
+            while ((flags = in.readUnsignedByte()) != 0) {
+                int prefix = (flags & FLAG_SAME_NAME) != 0 ? in.readUnsignedByte() : 0;
+                int suffix = (flags & FLAG_LONG_NAME) != 0 ? readInt() : in.readUnsignedByte();
+                if (prefix > lastName.length || suffix < 0 || prefix + suffix > MAX_NAME_LENGTH) {
+                    throw new RsyncException("Invalid file name length in the file list");
+                }
+                byte[] name = Arrays.copyOf(lastName, prefix + suffix);
+                in.readFully(name, prefix, suffix);
+                long size = readLongint();
+                long time = (flags & FLAG_SAME_TIME) != 0 ? lastTime : readInt() & 0xffffffffL;
+                int mode = (flags & FLAG_SAME_MODE) != 0 ? lastMode : readInt();
+
+                FileEntry entry = new FileEntry(name, size, time, mode);
+                if (size < 0 || !isSafe(entry.path)) {
+                    throw new RsyncException("Invalid entry in the file list: " + entry.path);
+                }
+                files.add(entry);
+                lastName = name;
+                lastTime = time;
+                lastMode = mode;
+            }
+
+            // the indexes of the files refer to the sorted list
+            Collections.sort(files, FILE_LIST_ORDER);
+
+            boolean single = !recursive && files.size() == 1 && files.get(0).isRegularFile() && !destination.isDirectory();
+            for (FileEntry entry : files) {
+                entry.target = single ? destination : ".".equals(entry.path) ? destination : new File(destination, entry.path);
+            }
+            return files;
+        }
+
+        private void createDirectories(List<FileEntry> files) throws IOException {
+            for (FileEntry entry : files) {
+                if (entry.isDirectory()) {
+                    if (entry.target.isFile() && !entry.target.delete()) {
+                        throw new IOException("Could not replace " + entry.target + " by a directory");
+                    }
+                    entry.target.mkdirs();
+                } else if (entry.isRegularFile() && entry.target.isDirectory()) {
+                    FileUtils.deleteDirectory(entry.target);
+                }
+            }
+        }
+
+        private boolean needsTransfer(FileEntry entry) {
+            File target = entry.target;
+            if (!target.isFile()) {
+                return true;
+            }
+            long localTime = target.lastModified() / 1000;
+            if (update && localTime > entry.modificationTime) {
+                return false;
+            }
+            return checksum || target.length() != entry.size || localTime != entry.modificationTime;
+        }
+
+        private void writeChecksums(File basis) throws IOException {
+            long length = basis.isFile() ? basis.length() : 0;
+            if (length == 0 || length > Integer.MAX_VALUE) {
+                writeNullChecksums();
+                return;
+            }
+            int blockLength = blockLength(length);
+            int count = (int) ((length + blockLength - 1) / blockLength);
+            writeInt(count);
+            writeInt(blockLength);
+            writeInt(RsyncChecksums.DIGEST_LENGTH);
+            writeInt((int) (length % blockLength));
+
+            byte[] block = new byte[blockLength];
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(basis), BUFFER_SIZE))) {
+                for (int i = 0; i < count; i++) {
+                    int n = (int) Math.min(blockLength, length - (long) i * blockLength);
+                    input.readFully(block, 0, n);
+                    writeInt(RsyncChecksums.rolling(block, 0, n));
+                    out.write(RsyncChecksums.block(block, 0, n, seed));
+                }
+            }
+        }
+
+        private void writeNullChecksums() throws IOException {
+            for (int i = 0; i < 4; i++) {
+                writeInt(0);
+            }
+        }
+
+        private void receiveFiles(List<FileEntry> files, List<Integer> requested, List<Integer> failed) throws IOException {
+            Set<Integer> expected = new HashSet<Integer>(requested);
+            int ndx;
+            while ((ndx = readInt()) != -1) {
+                if (!expected.remove(ndx)) {
+                    throw new RsyncException("The rsync server sent a file that was not asked for: " + ndx);
+                }
+                if (!receiveFile(files.get(ndx))) {
+                    failed.add(ndx);
+                }
+            }
+        }
+
+        private boolean receiveFile(FileEntry entry) throws IOException {
+            int count = readInt();
+            int blockLength = readInt();
+            int checksumLength = readInt();
+            int remainder = readInt();
+            if (count < 0 || blockLength < 0 || checksumLength < 0 || checksumLength > RsyncChecksums.DIGEST_LENGTH
+                    || remainder < 0 || remainder > blockLength) {
+                throw new RsyncException("Invalid checksum header for " + entry.path);
+            }
+
+            File target = entry.target;
+            File temp = File.createTempFile("." + target.getName() + ".", "", target.getParentFile());
+            boolean complete = false;
+            try {
+                MD4Digest digest = RsyncChecksums.file(seed);
+                try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+                     RandomAccessFile basis = count > 0 ? new RandomAccessFile(target, "r") : null) {
+                    byte[] buffer = new byte[Math.max(BUFFER_SIZE, blockLength)];
+                    int token;
+                    while ((token = readInt()) != 0) {
+                        if (token > 0) {
+                            for (int left = token; left > 0; ) {
+                                int n = Math.min(left, buffer.length);
+                                in.readFully(buffer, 0, n);
+                                output.write(buffer, 0, n);
+                                digest.update(buffer, 0, n);
+                                left -= n;
+                            }
+                            statistics.literalBytes += token;
+                        } else {
+                            int block = -(token + 1);
+                            if (basis == null || block >= count) {
+                                throw new RsyncException("The rsync server referred to a block " + block + " that " + entry.path + " does not have");
+                            }
+                            int n = block == count - 1 && remainder != 0 ? remainder : blockLength;
+                            basis.seek((long) block * blockLength);
+                            basis.readFully(buffer, 0, n);
+                            output.write(buffer, 0, n);
+                            digest.update(buffer, 0, n);
+                            statistics.matchedBytes += n;
+                        }
+                    }
+                }
+
+                byte[] expected = new byte[RsyncChecksums.DIGEST_LENGTH];
+                in.readFully(expected);
+                if (!Arrays.equals(expected, RsyncChecksums.result(digest))) {
+                    LOG.info("Checksum of " + entry.path + " does not match, it is asked for once more");
+                    return false;
+                }
+
+                move(temp, target);
+                if (times) {
+                    target.setLastModified(entry.modificationTime * 1000);
+                }
+                statistics.transferred++;
+                complete = true;
+                return true;
+            } finally {
+                if (!complete) {
+                    temp.delete();
+                }
+            }
+        }
+
+        private void deleteExtraneous(List<FileEntry> files) throws IOException {
+            Set<String> names = new HashSet<String>();
+            for (FileEntry entry : files) {
+                names.add(entry.path);
+            }
+            for (FileEntry entry : files) {
+                File[] children = entry.isDirectory() ? entry.target.listFiles() : null;
+                if (children == null) {
+                    continue;
+                }
+                for (File child : children) {
+                    String name = ".".equals(entry.path) ? child.getName() : entry.path + "/" + child.getName();
+                    if (!names.contains(name)) {
+                        FileUtils.forceDelete(child);
+                        statistics.deleted++;
+                    }
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the rsync connection", e);
+            }
+        }
+
+        private String reportedErrors() {
+            return multiplexed == null || multiplexed.getErrors().isEmpty() ? "" : ": " + multiplexed.getErrors();
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = raw.read()) != '\n') {
+                if (b < 0) {
+                    throw new RsyncException("The rsync server closed the connection");
+                }
+                if (line.size() >= MAX_LINE_LENGTH) {
+                    throw new RsyncException("The rsync server sent a line that is too long");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), UTF8);
+        }
+
+        private void writeLine(String line) throws IOException {
+            out.write((line + "\n").getBytes(UTF8));
+        }
+
+        private int readInt() throws IOException {
+            return Integer.reverseBytes(in.readInt());
+        }
+
+        private long readLongint() throws IOException {
+            int value = readInt();
+            return value != -1 ? value : Long.reverseBytes(in.readLong());
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.writeInt(Integer.reverseBytes(value));
+        }
+    }
+
+    static boolean isSafe(String path) {
+        if (".".equals(path)) {
+            return true;
+        }
+        if (path.isEmpty() || path.startsWith("/") || path.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : path.split("/", -1)) {
+            if (segment.isEmpty() || ".".equals(segment) || "..".equals(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int leadingNumber(String s) {
+        int i = 0;
+        while (i < s.length() && Character.isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i == 0 ? 0 : Integer.parseInt(s.substring(0, i));
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void join(Thread thread) throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RsyncException("Interrupted", e);
+        }
+    }
+}
@@ -202,6 +202,18 @@ public class CommandLineOptionsTest {
         assertTrue(subject.isVerboseEnabled());
     }
 
+    @Test
+    public void shouldDefaultToRunningRsyncProgram() throws ParseException {
+        subject.parse("-t", TEST1_TAL, "-o", "dir");
+        assertFalse(subject.isInProcessRsyncEnabled());
+    }
+
+    @Test
+    public void shouldParseInProcessRsyncOption() throws ParseException {
+        subject.parse("-t", TEST1_TAL, "-o", "dir", "--in-process-rsync");
+        assertTrue(subject.isInProcessRsyncEnabled());
+    }
+
     @Test
     public void shouldParseRoaExportShortOption() throws ParseException {
         subject.parse("-t", TEST1_TAL, "-o", "out", "-r", "roa.csv");
@@ -0,0 +1,399 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.crypto.digests.MD4Digest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sending side of rsync protocol 27 as an rsync daemon serves it, for a single module kept in a
+ * directory. It handles one connection at a time.
+ */
+class FakeRsyncDaemon implements AutoCloseable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SEED = 0x5eed;
+
+    private final ServerSocket server;
+    private final String module;
+    private final File root;
+    private final Thread thread;
+
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> fileListNames = new ArrayList<String>();
+    volatile List<String> arguments;
+    volatile String serverError;
+    volatile boolean corruptFirstTransfer;
+    volatile String extraEntry;
+
+    FakeRsyncDaemon(String module, File root) throws IOException {
+        this.server = new ServerSocket(0);
+        this.module = module;
+        this.root = root;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "fake-rsync-daemon");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    URI uri(String path) {
+        return URI.create("rsync://localhost:" + server.getLocalPort() + "/" + module + "/" + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                new Connection(socket).run();
+            } catch (EOFException e) {
+                // the client hung up
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    errors.add(e.toString());
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final List<File> files = new ArrayList<File>();
+        private final List<String> names = new ArrayList<String>();
+
+        Connection(Socket socket) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = socket.getOutputStream();
+        }
+
+        void run() throws IOException {
+            out.write("@RSYNCD: 31.0 md4 md5\n".getBytes(UTF8));
+            if (!readLine().startsWith("@RSYNCD: 27.0")) {
+                throw new IOException("unexpected protocol version");
+            }
+            String requestedModule = readLine();
+            if (!module.equals(requestedModule)) {
+                out.write(("@ERROR: Unknown module '" + requestedModule + "'\n").getBytes(UTF8));
+                return;
+            }
+            out.write("Welcome\n@RSYNCD: OK\n".getBytes(UTF8));
+
+            List<String> args = new ArrayList<String>();
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                args.add(line);
+            }
+            arguments = args;
+            boolean recursive = args.contains("-rtL") || args.contains("-rt") || args.contains("-r");
+            String path = args.get(args.size() - 1).substring(module.length() + 1);
+
+            out.write(littleEndian(SEED));
+            if (readInt() != 0) {
+                throw new IOException("exclusions are not supported");
+            }
+
+            if (serverError != null) {
+                message(MultiplexedInputStream.MSG_ERROR, serverError);
+            }
+            sendFileList(path, recursive);
+
+            int phase = 0;
+            boolean corrupt = corruptFirstTransfer;
+            while (true) {
+                int ndx = readInt();
+                if (ndx == -1) {
+                    if (++phase > 1) {
+                        break;
+                    }
+                    writeInt(-1);
+                    flush();
+                    continue;
+                }
+                sendFile(ndx, corrupt);
+                corrupt = false;
+                flush();
+            }
+            writeInt(-1);
+            writeInt(0);
+            writeInt(0);
+            writeInt(0);
+            flush();
+            if (readInt() != -1) {
+                throw new IOException("no goodbye");
+            }
+        }
+
+        private void sendFileList(String path, boolean recursive) throws IOException {
+            File source = new File(root, path);
+            List<String> list = new ArrayList<String>();
+            if (source.isDirectory() && (path.isEmpty() || path.endsWith("/"))) {
+                list.add(".");
+                files.add(source);
+                if (recursive) {
+                    addChildren(source, "", list);
+                }
+            } else if (source.isFile()) {
+                list.add(source.getName());
+                files.add(source);
+            }
+            names.addAll(list);
+            if (extraEntry != null) {
+                names.add(extraEntry);
+                files.add(new File(root, "missing"));
+            }
+
+            // sent in reverse order, the indexes refer to the sorted list
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < names.size(); i++) {
+                order.add(i);
+            }
+            Collections.reverse(order);
+
+            byte[] last = new byte[0];
+            long lastTime = -1;
+            int lastMode = -1;
+            for (int i : order) {
+                File file = files.get(i);
+                byte[] name = names.get(i).getBytes(UTF8);
+                long time = file.lastModified() / 1000;
+                int mode = file.isDirectory() ? 040755 : 0100644;
+
+                int prefix = 0;
+                while (prefix < Math.min(Math.min(last.length, name.length), 255) && last[prefix] == name[prefix]) {
+                    prefix++;
+                }
+                int suffix = name.length - prefix;
+                int flags = (prefix > 0 ? RsyncClient.FLAG_SAME_NAME : 0)
+                        | (suffix > 255 ? RsyncClient.FLAG_LONG_NAME : 0)
+                        | (time == lastTime ? RsyncClient.FLAG_SAME_TIME : 0)
+                        | (mode == lastMode ? RsyncClient.FLAG_SAME_MODE : 0);
+                if (flags == 0) {
+                    flags = file.isDirectory() ? RsyncClient.FLAG_LONG_NAME : RsyncClient.FLAG_TOP_DIR;
+                }
+                data.write(flags);
+                if ((flags & RsyncClient.FLAG_SAME_NAME) != 0) {
+                    data.write(prefix);
+                }
+                if ((flags & RsyncClient.FLAG_LONG_NAME) != 0) {
+                    writeInt(suffix);
+                } else {
+                    data.write(suffix);
+                }
+                data.write(name, prefix, suffix);
+                writeInt((int) (file.isFile() ? file.length() : 0));
+                if ((flags & RsyncClient.FLAG_SAME_TIME) == 0) {
+                    writeInt((int) time);
+                }
+                if ((flags & RsyncClient.FLAG_SAME_MODE) == 0) {
+                    writeInt(mode);
+                }
+                last = name;
+                lastTime = time;
+                lastMode = mode;
+            }
+            data.write(0);
+            writeInt(serverError == null ? 0 : 1);
+            flush();
+
+            List<String> sortedNames = new ArrayList<String>(names);
+            List<File> sortedFiles = new ArrayList<File>(files);
+            Integer[] indexes = order.toArray(new Integer[order.size()]);
+            Arrays.sort(indexes, new java.util.Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return names.get(a).compareTo(names.get(b));
+                }
+            });
+            for (int i = 0; i < indexes.length; i++) {
+                sortedNames.set(i, names.get(indexes[i]));
+                sortedFiles.set(i, files.get(indexes[i]));
+            }
+            names.clear();
+            names.addAll(sortedNames);
+            files.clear();
+            files.addAll(sortedFiles);
+            fileListNames.clear();
+            fileListNames.addAll(sortedNames);
+        }
+
+        private void addChildren(File directory, String prefix, List<String> list) {
+            File[] children = directory.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                list.add(prefix + child.getName());
+                files.add(child);
+                if (child.isDirectory()) {
+                    addChildren(child, prefix + child.getName() + "/", list);
+                }
+            }
+        }
+
+        private void sendFile(int ndx, boolean corrupt) throws IOException {
+            int count = readInt();
+            int blockLength = readInt();
+            int checksumLength = readInt();
+            int remainder = readInt();
+            Map<Integer, List<Integer>> blocksByRolling = new HashMap<Integer, List<Integer>>();
+            List<byte[]> strong = new ArrayList<byte[]>();
+            for (int i = 0; i < count; i++) {
+                int rolling = readInt();
+                byte[] sum = new byte[checksumLength];
+                in.readFully(sum);
+                strong.add(sum);
+                if (!blocksByRolling.containsKey(rolling)) {
+                    blocksByRolling.put(rolling, new ArrayList<Integer>());
+                }
+                blocksByRolling.get(rolling).add(i);
+            }
+
+            byte[] content = FileUtils.readFileToByteArray(files.get(ndx));
+            writeInt(ndx);
+            writeInt(count);
+            writeInt(blockLength);
+            writeInt(checksumLength);
+            writeInt(remainder);
+
+            int literalStart = 0;
+            int offset = 0;
+            while (offset < content.length) {
+                int match = -1;
+                for (int length : new int[] { blockLength, remainder }) {
+                    if (length == 0 || offset + length > content.length || match >= 0) {
+                        continue;
+                    }
+                    List<Integer> candidates = blocksByRolling.get(RsyncChecksums.rolling(content, offset, length));
+                    if (candidates == null) {
+                        continue;
+                    }
+                    byte[] sum = Arrays.copyOf(RsyncChecksums.block(content, offset, length, SEED), checksumLength);
+                    for (int candidate : candidates) {
+                        int candidateLength = candidate == count - 1 && remainder != 0 ? remainder : blockLength;
+                        if (candidateLength == length && Arrays.equals(sum, strong.get(candidate))) {
+                            match = candidate;
+                            break;
+                        }
+                    }
+                }
+                if (match < 0) {
+                    offset++;
+                    continue;
+                }
+                literal(content, literalStart, offset);
+                writeInt(-(match + 1));
+                offset += match == count - 1 && remainder != 0 ? remainder : blockLength;
+                literalStart = offset;
+            }
+            literal(content, literalStart, content.length);
+            writeInt(0);
+
+            MD4Digest digest = RsyncChecksums.file(SEED);
+            digest.update(content, 0, content.length);
+            byte[] checksum = RsyncChecksums.result(digest);
+            if (corrupt) {
+                checksum[0] ^= 1;
+            }
+            data.write(checksum);
+        }
+
+        private void literal(byte[] content, int from, int to) throws IOException {
+            if (to > from) {
+                writeInt(to - from);
+                data.write(content, from, to - from);
+            }
+        }
+
+        private void message(int tag, String text) throws IOException {
+            flush();
+            byte[] payload = text.getBytes(UTF8);
+            out.write(littleEndian(((7 + tag) << 24) | payload.length));
+            out.write(payload);
+        }
+
+        private void flush() throws IOException {
+            byte[] bytes = data.toByteArray();
+            data.reset();
+            if (bytes.length > 0) {
+                out.write(littleEndian((7 << 24) | bytes.length));
+                out.write(bytes);
+            }
+            out.flush();
+        }
+
+        private void writeInt(int value) throws IOException {
+            data.write(littleEndian(value));
+        }
+
+        private int readInt() throws IOException {
+            return Integer.reverseBytes(in.readInt());
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("connection closed");
+                }
+                line.write(b);
+            }
+            return new String(line.toByteArray(), UTF8);
+        }
+    }
+
+    private static byte[] littleEndian(int value) {
+        return new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+    }
+}
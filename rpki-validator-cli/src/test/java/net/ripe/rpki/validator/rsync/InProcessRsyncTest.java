@@ -0,0 +1,130 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.util.Specifications;
+import net.ripe.rpki.commons.validation.ValidationLocation;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator.commands.TopDownWalkerTest;
+import net.ripe.rpki.validator.fetchers.RpkiRepositoryObjectFetcher;
+import net.ripe.rpki.validator.fetchers.RsyncRpkiRepositoryObjectFetcher;
+import net.ripe.rpki.validator.util.UriToFileMapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+public class InProcessRsyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRsyncDaemon daemon;
+    private File local;
+
+    @Before
+    public void setUp() throws IOException {
+        File remote = folder.newFolder("remote");
+        local = folder.newFolder("local");
+        daemon = new FakeRsyncDaemon("repo", remote);
+        FileUtils.writeByteArrayToFile(new File(remote, "ca/root.mft"), TopDownWalkerTest.getRootManifestCms().getEncoded());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.close();
+    }
+
+    @Test
+    public void shouldPrefetchAndFetchWithRsyncFetcher() {
+        URI repository = daemon.uri("ca/");
+        ValidationResult result = ValidationResult.withLocation(repository);
+        InProcessRsync rsync = new InProcessRsync();
+        RpkiRepositoryObjectFetcher fetcher = new RsyncRpkiRepositoryObjectFetcher(rsync, new UriToFileMapper(local));
+
+        fetcher.prefetch(repository, result);
+        assertFalse(result.hasFailures());
+        assertTrue(rsync.isCompleted());
+        assertEquals(0, rsync.getExitStatus());
+
+        URI manifest = repository.resolve("root.mft");
+        result.setLocation(new ValidationLocation(manifest));
+        CertificateRepositoryObject object = fetcher.fetch(manifest, Specifications.<byte[]>alwaysTrue(), result);
+        assertEquals(TopDownWalkerTest.getRootManifestCms(), object);
+    }
+
+    @Test
+    public void shouldFetchSingleFileToDestinationFile() throws IOException {
+        InProcessRsync rsync = new InProcessRsync();
+        rsync.addOptions("--update", "--times", "--copy-links");
+        rsync.setSource(daemon.uri("ca/root.mft").toString());
+        File destination = new File(local, "root.mft");
+        rsync.setDestination(destination.getAbsolutePath());
+
+        assertEquals(0, rsync.execute());
+        assertArrayEquals(TopDownWalkerTest.getRootManifestCms().getEncoded(), FileUtils.readFileToByteArray(destination));
+    }
+
+    @Test
+    public void shouldReturnErrorStatusWhenTransferFails() {
+        InProcessRsync rsync = new InProcessRsync();
+        rsync.setSource(URI.create(daemon.uri("").toString().replace("/repo/", "/other/")).toString());
+        rsync.setDestination(local.getAbsolutePath());
+
+        assertEquals(InProcessRsync.TRANSFER_ERROR, rsync.execute());
+        assertTrue(rsync.getException() instanceof RsyncException);
+        assertEquals("@ERROR: Unknown module 'other'", rsync.getErrorLines()[0]);
+    }
+
+    @Test
+    public void shouldReturnSyntaxErrorForUnsupportedOptions() {
+        InProcessRsync rsync = new InProcessRsync();
+        rsync.addOptions("--compress");
+        rsync.setSource(daemon.uri("ca/").toString());
+        rsync.setDestination(local.getAbsolutePath());
+
+        assertEquals(InProcessRsync.SYNTAX_ERROR, rsync.execute());
+
+        rsync.reset();
+        rsync.addOptions("--recursive");
+        rsync.setSource(daemon.uri("ca/").toString());
+        rsync.setDestination(local.getAbsolutePath());
+        assertEquals(0, rsync.execute());
+    }
+}
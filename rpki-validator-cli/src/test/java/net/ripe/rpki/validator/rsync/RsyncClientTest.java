@@ -0,0 +1,292 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2012 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator.rsync;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RsyncClientTest {
+
+    private static final List<String> MIRROR = Arrays.asList("--update", "--times", "--copy-links", "--recursive", "--delete");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File remote;
+    private File local;
+    private FakeRsyncDaemon daemon;
+
+    @Before
+    public void setUp() throws IOException {
+        remote = folder.newFolder("remote");
+        local = folder.newFolder("local");
+        daemon = new FakeRsyncDaemon("repo", remote);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        daemon.close();
+        assertEquals("no errors in the daemon", Arrays.asList(), daemon.errors);
+    }
+
+    @Test
+    public void shouldFetchDirectoryRecursively() throws IOException {
+        write("ca/ta.cer", "certificate");
+        write("ca/child/ca.mft", "manifest");
+        new File(remote, "ca/ta.cer").setLastModified(1400000000000L);
+
+        RsyncClient.Statistics statistics = new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+
+        assertEquals("certificate", read("ta.cer"));
+        assertEquals("manifest", read("child/ca.mft"));
+        assertEquals(1400000000000L, new File(local, "ta.cer").lastModified());
+        assertEquals(Arrays.asList("--server", "--sender", "-rtL", ".", "repo/ca/"), daemon.arguments);
+        assertEquals(Arrays.asList(".", "child", "child/ca.mft", "ta.cer"), daemon.fileListNames);
+        assertEquals(4, statistics.getFiles());
+        assertEquals(2, statistics.getTransferred());
+    }
+
+    @Test
+    public void shouldNotTransferFilesWithSameSizeAndTime() throws IOException {
+        write("ca/ta.cer", "certificate");
+        RsyncClient client = new RsyncClient(MIRROR, 10);
+        client.sync(daemon.uri("ca/"), local);
+
+        RsyncClient.Statistics statistics = client.sync(daemon.uri("ca/"), local);
+
+        assertEquals(0, statistics.getTransferred());
+        assertEquals(0, statistics.getLiteralBytes());
+    }
+
+    @Test
+    public void shouldOnlyTransferTheBlocksThatChanged() throws IOException {
+        byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        FileUtils.writeByteArrayToFile(new File(remote, "ca/crl.crl"), content);
+        FileUtils.writeByteArrayToFile(new File(local, "crl.crl"), content);
+        new File(local, "crl.crl").setLastModified(1400000000000L);
+        content[50000] ^= 1;
+        FileUtils.writeByteArrayToFile(new File(remote, "ca/crl.crl"), content);
+
+        RsyncClient.Statistics statistics = new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(local, "crl.crl")));
+        assertEquals(1, statistics.getTransferred());
+        assertTrue("most of the file is matched locally", statistics.getMatchedBytes() > 90000);
+        assertTrue("only the changed block is sent", statistics.getLiteralBytes() < 1000);
+    }
+
+    @Test
+    public void shouldTransferMoreThanTheSocketsBuffer() throws IOException {
+        byte[] content = new byte[20000];
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            random.nextBytes(content);
+            FileUtils.writeByteArrayToFile(new File(remote, "ca/" + i + ".roa"), content);
+            FileUtils.writeByteArrayToFile(new File(local, i + ".roa"), Arrays.copyOf(content, 10000));
+        }
+
+        RsyncClient.Statistics statistics = new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+
+        assertEquals(500, statistics.getTransferred());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(local, "499.roa")));
+    }
+
+    @Test
+    public void shouldCompareBlocksOfEveryFileWithChecksum() throws IOException {
+        write("ca/ta.cer", "certificate");
+        write("ca/ta.cer", "certificatf");
+        FileUtils.writeStringToFile(new File(local, "ta.cer"), "certificate");
+        new File(local, "ta.cer").setLastModified(new File(remote, "ca/ta.cer").lastModified());
+
+        new RsyncClient(Arrays.asList("--times", "--recursive"), 10).sync(daemon.uri("ca/"), local);
+        assertEquals("same size and time, not transferred", "certificate", read("ta.cer"));
+
+        new RsyncClient(Arrays.asList("--times", "--recursive", "--checksum"), 10).sync(daemon.uri("ca/"), local);
+        assertEquals("certificatf", read("ta.cer"));
+    }
+
+    @Test
+    public void shouldDeleteFilesThatAreNoLongerPublished() throws IOException {
+        write("ca/ta.cer", "certificate");
+        FileUtils.writeStringToFile(new File(local, "old.roa"), "roa");
+        FileUtils.writeStringToFile(new File(local, "old/old.roa"), "roa");
+
+        new RsyncClient(Arrays.asList("--recursive"), 10).sync(daemon.uri("ca/"), local);
+        assertTrue(new File(local, "old.roa").exists());
+
+        RsyncClient.Statistics statistics = new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+
+        assertFalse(new File(local, "old.roa").exists());
+        assertFalse(new File(local, "old").exists());
+        assertTrue(new File(local, "ta.cer").exists());
+        assertEquals(2, statistics.getDeleted());
+    }
+
+    @Test
+    public void shouldFetchSingleFile() throws IOException {
+        write("ca/ta.cer", "certificate");
+        write("ca/other.cer", "other");
+
+        new RsyncClient(Arrays.asList("--times", "--copy-links"), 10).sync(daemon.uri("ca/ta.cer"), local);
+        assertEquals("certificate", read("ta.cer"));
+        assertFalse(new File(local, "other.cer").exists());
+        assertEquals(Arrays.asList("--server", "--sender", "-tL", ".", "repo/ca/ta.cer"), daemon.arguments);
+
+        File file = new File(local, "renamed.cer");
+        new RsyncClient(Arrays.asList("--times"), 10).sync(daemon.uri("ca/ta.cer"), file);
+        assertEquals("certificate", FileUtils.readFileToString(file));
+    }
+
+    @Test
+    public void shouldFetchFileAgainWhenChecksumDoesNotMatch() throws IOException {
+        write("ca/ta.cer", "certificate");
+        daemon.corruptFirstTransfer = true;
+
+        new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+
+        assertEquals("certificate", read("ta.cer"));
+        assertEquals(Arrays.asList("ta.cer"), Arrays.asList(local.list()));
+    }
+
+    @Test
+    public void shouldFailAndKeepFilesWhenServerReportsErrors() throws IOException {
+        write("ca/ta.cer", "certificate");
+        FileUtils.writeStringToFile(new File(local, "old.roa"), "roa");
+        daemon.serverError = "rsync: opendir \"/ca/child\" failed: Permission denied (13)";
+
+        try {
+            new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+            fail("transfer must fail");
+        } catch (RsyncException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Permission denied"));
+        }
+        assertEquals("certificate", read("ta.cer"));
+        assertTrue("not deleted after errors", new File(local, "old.roa").exists());
+    }
+
+    @Test
+    public void shouldRejectUnknownModule() throws IOException {
+        try {
+            new RsyncClient(MIRROR, 10).sync(URI.create(daemon.uri("").toString().replace("/repo/", "/other/")), local);
+            fail("transfer must fail");
+        } catch (RsyncException e) {
+            assertEquals("@ERROR: Unknown module 'other'", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRejectFileNamesOutsideDestination() throws IOException {
+        write("ca/ta.cer", "certificate");
+        daemon.extraEntry = "../escaped.cer";
+
+        try {
+            new RsyncClient(MIRROR, 10).sync(daemon.uri("ca/"), local);
+            fail("transfer must fail");
+        } catch (RsyncException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("../escaped.cer"));
+        }
+        assertFalse(new File(local.getParentFile(), "escaped.cer").exists());
+    }
+
+    @Test
+    public void shouldTimeOutWhenServerSendsNothing() throws IOException {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            long startedAt = System.currentTimeMillis();
+            try {
+                new RsyncClient(MIRROR, 1).sync(URI.create("rsync://localhost:" + silent.getLocalPort() + "/repo/"), local);
+                fail("transfer must time out");
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() - startedAt < 10000);
+            }
+        }
+    }
+
+    @Test
+    public void shouldStopWhenAborted() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            final RsyncClient client = new RsyncClient(MIRROR, 0);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    client.abort();
+                }
+            }).start();
+            try {
+                client.sync(URI.create("rsync://localhost:" + silent.getLocalPort() + "/repo/"), local);
+                fail("transfer must be aborted");
+            } catch (RsyncException e) {
+                assertEquals("Aborted", e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedOptions() {
+        new RsyncClient(Arrays.asList("--compress"), 10);
+    }
+
+    @Test
+    public void shouldOnlyAcceptSafeRelativeNames() {
+        assertTrue(RsyncClient.isSafe("."));
+        assertTrue(RsyncClient.isSafe("a/b.cer"));
+        assertFalse(RsyncClient.isSafe("/etc/passwd"));
+        assertFalse(RsyncClient.isSafe("a/../../b"));
+        assertFalse(RsyncClient.isSafe("a//b"));
+        assertFalse(RsyncClient.isSafe(""));
+    }
+
+    private void write(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(remote, path), content);
+    }
+
+    private String read(String path) throws IOException {
+        return FileUtils.readFileToString(new File(local, path));
+    }
+}